@@ -21,6 +21,9 @@ import java.util.concurrent.atomic.AtomicInteger;
  */
 @SuppressWarnings({"FieldCanBeLocal"}) public class AsmCodeEmitter implements Opcodes {
   private static final boolean printBytecode = true|| System.getProperty("print_bytecode") != null;
+
+  // The most nodes a function body may have for calls to it to be inlined, 0 to turn it off.
+  private static final int inlineBudget = Integer.getInteger("inline_budget", 16);
   private static final AtomicInteger functionNameSequence = new AtomicInteger();
 
   private static final String IS_LIST_VAR_PREFIX = "__$isList_";
@@ -30,9 +33,27 @@ import java.util.concurrent.atomic.AtomicInteger;
   private static final String IS_READER_PREFIX = "__$isRdr_";
   private static final String WHERE_SCOPE_FN_PREFIX = "$wh$";
 
+  private static final String LIST_OFFSET_SUFFIX = "$tail";
+  private static final String TRAMPOLINE_SUFFIX = "$bounce";
+
+  // Fewer pattern rules than this are cheaper to just test one after the other.
+  private static final int MIN_SWITCHED_RULES = 3;
+
+  // Calls to a function that go straight to its generic body after its int specialization
+  // overflows, before the specialization is tried again.
+  private static final int OVERFLOW_COOLDOWN = 64;
+
+  private static final Handle LINKER_BOOTSTRAP = new Handle(H_INVOKESTATIC, "loop/runtime/Linker",
+      "bootstrap", "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;"
+      + "Ljava/lang/invoke/MethodType;Ljava/lang/String;I)Ljava/lang/invoke/CallSite;");
+  private static final Handle DYNAMIC_BOOTSTRAP = new Handle(H_INVOKESTATIC, "loop/runtime/Linker",
+      "bootstrapDynamic", "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;"
+      + "Ljava/lang/invoke/MethodType;)Ljava/lang/invoke/CallSite;");
+
   private final Stack<Context> functionStack = new Stack<Context>();
 
   private final Scope scope;
+  private final TypeInferrer types;
 
   public static class SourceLocation implements Comparable<SourceLocation> {
     public final int line;
@@ -67,8 +88,12 @@ import java.util.concurrent.atomic.AtomicInteger;
 
   private final Map<Class<?>, Emitter> EMITTERS = new HashMap<Class<?>, Emitter>();
 
+  // Expressions whose locals are all dead once they have left their value on the stack.
+  private final Set<Class<?>> SCOPED_EXPRESSIONS = new HashSet<Class<?>>();
+
   AsmCodeEmitter(Scope scope) {
     this.scope = scope;
+    this.types = new TypeInferrer(scope);
 
     EMITTERS.put(Call.class, callEmitter);
     EMITTERS.put(Dereference.class, dereferenceEmitter);
@@ -100,11 +125,62 @@ import java.util.concurrent.atomic.AtomicInteger;
     EMITTERS.put(Comprehension.class, comprehensionEmitter);
     EMITTERS.put(ConstructorCall.class, constructorCallEmitter);
     EMITTERS.put(ListRange.class, inlineListRangeEmitter);
+
+    SCOPED_EXPRESSIONS.add(Call.class);
+    SCOPED_EXPRESSIONS.add(ConstructorCall.class);
+    SCOPED_EXPRESSIONS.add(InlineListDef.class);
+    SCOPED_EXPRESSIONS.add(InlineMapDef.class);
+    SCOPED_EXPRESSIONS.add(Comprehension.class);
   }
 
-  private final ClassWriter classWriter = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+  // Java 7 classfiles (needed for invokedynamic) must carry stack map frames.
+  private final ClassWriter classWriter = new ClassWriter(ClassWriter.COMPUTE_FRAMES) {
+    @Override
+    protected String getCommonSuperClass(String type1, String type2) {
+      try {
+        return super.getCommonSuperClass(type1, type2);
+      } catch (RuntimeException e) {
+        // Types not visible to us here are only ever used as Objects by Loop.
+        return "java/lang/Object";
+      }
+    }
+  };
   private final Stack<MethodVisitor> methodStack = new Stack<MethodVisitor>();
 
+  // Comprehensions already built by a shared traversal, and the locals holding them.
+  private final Map<Comprehension, Integer> sharedComprehensions =
+      new IdentityHashMap<Comprehension, Integer>();
+
+  // Regexes used by this module, hoisted into static fields, by field name.
+  private final Map<String, String> regexFields = new LinkedHashMap<String, String>();
+
+  // Functions being inlined right now (innermost last), and where their lines went.
+  private final Stack<FunctionDecl> inlineStack = new Stack<FunctionDecl>();
+  private final Stack<StackTraceSanitizer.InlinedFunction> inlineSites =
+      new Stack<StackTraceSanitizer.InlinedFunction>();
+  private final List<StackTraceSanitizer.InlinedFunction> inlinedFunctions =
+      new ArrayList<StackTraceSanitizer.InlinedFunction>();
+  private int nextInlinedLine = StackTraceSanitizer.FIRST_INLINED_LINE;
+
+  // Greater than 0 while inlining a call that isn't itself a tail call.
+  private int tailCallsSuppressed;
+
+  // The calls each function returns the value of as it is, see tailCallsOf().
+  private final Map<FunctionDecl, Set<Call>> tailCalls =
+      new IdentityHashMap<FunctionDecl, Set<Call>>();
+
+  // Functions that tail call one another in a cycle, each with its whole group (in order of
+  // their number within it), and the calls from one to another that are really tail calls.
+  private final Map<FunctionDecl, List<FunctionDecl>> trampolineGroups =
+      new IdentityHashMap<FunctionDecl, List<FunctionDecl>>();
+  private final Set<Call> trampolineCalls = Collections.newSetFromMap(
+      new IdentityHashMap<Call, Boolean>());
+
+  // Constant lists and maps, hoisted into static fields, by field name. These are built in
+  // place (not hoisted) while the static initializer sets the fields up.
+  private final Map<String, Node> constantFields = new LinkedHashMap<String, Node>();
+  private boolean hoistConstants = true;
+
   public Class<?> write(Unit unit) {
     Thread.currentThread().setContextClassLoader(LoopClassLoader.CLASS_LOADER);
 
@@ -117,14 +193,28 @@ import java.util.concurrent.atomic.AtomicInteger;
         fileName += ".loop";
       classWriter.visitSource(fileName, null);
     }
-    classWriter.visit(V1_6, ACC_PUBLIC, javaClass, null, "java/lang/Object", new String[0]);
+    classWriter.visit(V1_7, ACC_PUBLIC, javaClass, null, "java/lang/Object", new String[0]);
+
+    // Prove which functions and arithmetic can be computed unboxed.
+    types.inferSignatures(unit.functions());
+    for (FunctionDecl functionDecl : unit.functions()) {
+      types.infer(functionDecl);
+    }
+    if (unit.initializer() != null)
+      types.inferAll(unit.initializer());
+    findTrampolines(unit);
 
     for (FunctionDecl functionDecl : unit.functions()) {
       emit(functionDecl);
+
+      if (types.isIntFunction(functionDecl)) {
+        emitIntSpecialization(functionDecl);
+        emitIntEntry(functionDecl);
+      }
     }
 
     // Emit any static initializer here.
-    if (unit.initializer() != null)
+    if (unit.initializer() != null || !regexFields.isEmpty() || !constantFields.isEmpty())
       emitInitializerBlock(unit.initializer());
 
     classWriter.visitEnd();
@@ -138,6 +228,7 @@ import java.util.concurrent.atomic.AtomicInteger;
       }
     }
 
+    StackTraceSanitizer.inlined(javaClass, inlinedFunctions);
     LoopClassLoader.CLASS_LOADER.put(javaClass, classWriter.toByteArray());
     try {
       return LoopClassLoader.CLASS_LOADER.findClass(javaClass);
@@ -153,16 +244,57 @@ import java.util.concurrent.atomic.AtomicInteger;
         null,
         null);
 
+    // Constants are set up before anything else runs, but are only all known at the end.
+    Label initializeConstants = new Label(), start = new Label();
+    initializer.visitJumpInsn(GOTO, initializeConstants);
+    initializer.visitLabel(start);
+
     methodStack.push(initializer);
     Context context = new Context(FunctionDecl.STATIC_INITIALIZER);
     functionStack.push(context);
     scope.pushScope(context);
-    for (Node expr : exprs) {
-      emit(expr);
-      initializer.visitInsn(POP);
+    if (exprs != null) {
+      for (Node expr : exprs) {
+        emit(expr);
+        initializer.visitInsn(POP);
+      }
     }
-
     initializer.visitInsn(RETURN);
+
+    initializer.visitLabel(initializeConstants);
+    for (Map.Entry<String, String> regexField : regexFields.entrySet()) {
+      initializer.visitLdcInsn(regexField.getValue());
+      initializer.visitMethodInsn(INVOKESTATIC, "loop/runtime/regex/NamedPattern", "compile",
+          "(Ljava/lang/String;)Lloop/runtime/regex/NamedPattern;");
+      initializer.visitFieldInsn(PUTSTATIC, scope.getModuleName(), regexField.getKey(),
+          "Lloop/runtime/regex/NamedPattern;");
+    }
+
+    hoistConstants = false;
+    for (Map.Entry<String, Node> constantField : constantFields.entrySet()) {
+      Node collection = constantField.getValue();
+      String type = collection instanceof InlineListDef
+          ? "loop/lang/ImmutableList"
+          : "loop/lang/ImmutableLoopObject";
+
+      initializer.visitTypeInsn(NEW, type);
+      initializer.visitInsn(DUP);
+      if (collection instanceof InlineListDef) {
+        emit(collection);
+        initializer.visitMethodInsn(INVOKESPECIAL, type, "<init>", "(Ljava/util/Collection;)V");
+      } else {
+        initializer.visitFieldInsn(GETSTATIC, "loop/lang/LoopClass", "IMMUTABLE_MAP",
+            "Lloop/lang/LoopClass;");
+        emit(collection);
+        initializer.visitMethodInsn(INVOKESPECIAL, type, "<init>",
+            "(Lloop/lang/LoopClass;Ljava/util/Map;)V");
+      }
+      initializer.visitFieldInsn(PUTSTATIC, scope.getModuleName(), constantField.getKey(),
+          "L" + type + ";");
+    }
+    hoistConstants = true;
+    initializer.visitJumpInsn(GOTO, start);
+
     initializer.visitMaxs(1, 0);
     initializer.visitEnd();
     scope.popScope();
@@ -173,7 +305,17 @@ import java.util.concurrent.atomic.AtomicInteger;
   private void trackLineAndColumn(Node node) {
     Label line = new Label();
     methodStack.peek().visitLabel(line);
-    methodStack.peek().visitLineNumber(node.sourceLine, line);
+    methodStack.peek().visitLineNumber(lineOf(node), line);
+  }
+
+  private int lineOf(Node node) {
+    if (inlineSites.isEmpty())
+      return node.sourceLine;
+
+    // Inlined code goes on the lines set aside for its function.
+    StackTraceSanitizer.InlinedFunction site = inlineSites.peek();
+    int line = node.sourceLine - site.firstLine;
+    return site.firstInlinedLine + (line < 0 || line >= site.lines ? 0 : line);
   }
 
   private void emitChildren(Node node) {
@@ -187,9 +329,18 @@ import java.util.concurrent.atomic.AtomicInteger;
   }
 
   public void emit(Node node) {
-    if (!EMITTERS.containsKey(node.getClass()))
+    Emitter emitter = EMITTERS.get(node.getClass());
+    if (emitter == null)
       throw new RuntimeException("Missing emitter for " + node.getClass().getSimpleName());
-    EMITTERS.get(node.getClass()).emitCode(node);
+
+    // Once these have left their value on the stack, their locals are free for reuse.
+    if (SCOPED_EXPRESSIONS.contains(node.getClass()) && !functionStack.isEmpty()) {
+      Context context = functionStack.peek();
+      int scope = context.openScope();
+      emitter.emitCode(node);
+      context.closeScope(scope);
+    } else
+      emitter.emitCode(node);
   }
 
   // -------------------------------------------------------------------
@@ -205,16 +356,8 @@ import java.util.concurrent.atomic.AtomicInteger;
       Label elseBranch = new Label();
       Label end = new Label();
 
-      // If condition
-      emit(node.children().get(0));
-      methodVisitor.visitTypeInsn(CHECKCAST, "java/lang/Boolean");
-      methodVisitor.visitMethodInsn(INVOKEVIRTUAL, "java/lang/Boolean", "booleanValue", "()Z");
-
-      // Flip the clauses in an "unless" expression.
-      if (unless)
-        methodVisitor.visitJumpInsn(IFNE, elseBranch);
-      else
-        methodVisitor.visitJumpInsn(IFEQ, elseBranch);
+      // If condition, with the clauses flipped in an "unless" expression.
+      emitBranch(node.children().get(0), unless, elseBranch);
 
       emit(node.children().get(1));
       methodVisitor.visitJumpInsn(GOTO, end);
@@ -225,14 +368,613 @@ import java.util.concurrent.atomic.AtomicInteger;
     }
   };
 
+  /**
+   * Evaluates a condition and jumps to {@code target} if it is {@code outcome}, leaving
+   * nothing on the stack. And/or only evaluate their right side if they have to, and typed
+   * comparisons are tested without ever boxing a Boolean.
+   */
+  private void emitBranch(Node condition, boolean outcome, Label target) {
+    MethodVisitor methodVisitor = methodStack.peek();
+
+    if (condition instanceof Computation) {
+      trackLineAndColumn(condition);
+      emitBranch((Computation) condition, condition.children().size(), outcome, target);
+    } else if (condition instanceof BooleanLiteral) {
+      if (((BooleanLiteral) condition).value == outcome)
+        methodVisitor.visitJumpInsn(GOTO, target);
+    } else {
+      emit(condition);
+      methodVisitor.visitTypeInsn(CHECKCAST, "java/lang/Boolean");
+      methodVisitor.visitMethodInsn(INVOKEVIRTUAL, "java/lang/Boolean", "booleanValue", "()Z");
+      methodVisitor.visitJumpInsn(outcome ? IFNE : IFEQ, target);
+    }
+  }
+
+  /**
+   * Branches on the first {@code length} links of a computation chain, which is evaluated
+   * left to right, so a trailing and/or applies to everything before it.
+   */
+  private void emitBranch(Computation computation, int length, boolean outcome, Label target) {
+    MethodVisitor methodVisitor = methodStack.peek();
+    List<Node> chain = computation.children();
+    if (length == 1) {
+      emitBranch(chain.get(0), outcome, target);
+      return;
+    }
+
+    Node last = chain.get(length - 1);
+    Token.Kind kind = last instanceof BinaryOp ? ((BinaryOp) last).operator.kind : null;
+    if (kind == Token.Kind.AND || kind == Token.Kind.OR) {
+      Node operand = ((BinaryOp) last).onlyChild();
+
+      // Either side alone decides a false "and", or a true "or".
+      if (outcome == (kind == Token.Kind.OR)) {
+        emitBranch(computation, length - 1, outcome, target);
+        emitBranch(operand, outcome, target);
+      } else {
+        Label decided = new Label();
+        emitBranch(computation, length - 1, !outcome, decided);
+        emitBranch(operand, outcome, target);
+        methodVisitor.visitLabel(decided);
+      }
+      return;
+    }
+
+    if (length == 2 && (kind == Token.Kind.EQUALS || kind == Token.Kind.NOT)
+        && emitStringSliceComparison(chain.get(0), ((BinaryOp) last).onlyChild(),
+            outcome == (kind == Token.Kind.EQUALS), target))
+      return;
+
+    if (length == chain.size() && types.typeOf(computation) == Type.BOOLEAN_TYPE) {
+      Map<Integer, Label> overflows = new TreeMap<Integer, Label>();
+      emitPrimitiveComputation(computation, overflows);
+      if (!overflows.isEmpty()) {
+        Label test = new Label();
+        methodVisitor.visitJumpInsn(GOTO, test);
+        emitOverflows(chain, overflows, test, true);
+        methodVisitor.visitLabel(test);
+      }
+    } else {
+      String test = kind == null ? null : unboxedComparison(kind);
+      for (int i = 0, end = test == null ? length : length - 1; i < end; i++) {
+        emit(chain.get(i));
+      }
+
+      if (test != null) {
+        emitOnlyChild(last);
+        methodVisitor.visitMethodInsn(INVOKESTATIC, "loop/runtime/Operations", test,
+            "(Ljava/lang/Object;Ljava/lang/Object;)Z");
+      } else {
+        methodVisitor.visitTypeInsn(CHECKCAST, "java/lang/Boolean");
+        methodVisitor.visitMethodInsn(INVOKEVIRTUAL, "java/lang/Boolean", "booleanValue", "()Z");
+      }
+    }
+    methodVisitor.visitJumpInsn(outcome ? IFNE : IFEQ, target);
+  }
+
+  private static String unboxedComparison(Token.Kind kind) {
+    switch (kind) {
+      case LESSER:
+        return "isLesserThan";
+      case LEQ:
+        return "isLesserThanOrEqual";
+      case GREATER:
+        return "isGreaterThan";
+      case GEQ:
+        return "isGreaterThanOrEqual";
+      case EQUALS:
+        return "isEqual";
+      case NOT:
+        return "isNotEqual";
+      default:
+        return null;
+    }
+  }
+
   private final Emitter computationEmitter = new Emitter() {
     @Override
     public void emitCode(Node node) {
       trackLineAndColumn(node);
-      emitChildren(node);
+
+      // Typed arithmetic is computed on primitives and boxed only once, at the end.
+      Type type = types.typeOf(node);
+      if (type == null) {
+        emitSharedTraversals(node);
+        emitChildren(node);
+        return;
+      }
+
+      Map<Integer, Label> overflows = new TreeMap<Integer, Label>();
+      emitPrimitiveComputation((Computation) node, overflows);
+      box(type);
+      if (overflows.isEmpty())
+        return;
+
+      Label end = new Label();
+      methodStack.peek().visitJumpInsn(GOTO, end);
+      emitOverflows(node.children(), overflows, end, false);
+      methodStack.peek().visitLabel(end);
     }
   };
 
+  /**
+   * An int operation that overflowed leaves its long result on the stack, and the rest of
+   * the chain carries on generically from there, promoting as it goes. Each continuation
+   * ends up at {@code end} with the boxed result, or unboxed to Z for conditions.
+   */
+  private void emitOverflows(List<Node> chain,
+                             Map<Integer, Label> overflows,
+                             Label end,
+                             boolean condition) {
+    MethodVisitor methodVisitor = methodStack.peek();
+    for (Map.Entry<Integer, Label> overflow : overflows.entrySet()) {
+      methodVisitor.visitLabel(overflow.getValue());
+      box(Type.LONG_TYPE);
+      for (int i = overflow.getKey() + 1, chainSize = chain.size(); i < chainSize; i++) {
+        emit(chain.get(i));
+      }
+
+      if (condition) {
+        methodVisitor.visitTypeInsn(CHECKCAST, "java/lang/Boolean");
+        methodVisitor.visitMethodInsn(INVOKEVIRTUAL, "java/lang/Boolean", "booleanValue", "()Z");
+      }
+      methodVisitor.visitJumpInsn(GOTO, end);
+    }
+  }
+
+  /**
+   * Int arithmetic is computed in long, and any result that doesn't fit back in an int
+   * jumps out to the label recorded against the index of its operation in
+   * {@code overflows}, with the long on the stack. Nested computations are only typed if
+   * they cannot overflow, so they pass null.
+   */
+  private void emitPrimitiveComputation(Computation computation, Map<Integer, Label> overflows) {
+    MethodVisitor methodVisitor = methodStack.peek();
+    List<Node> children = computation.children();
+
+    Node first = children.get(0);
+    Type type = types.typeOf(first);
+    emitPrimitive(first, type);
+
+    for (int i = 1, childrenSize = children.size(); i < childrenSize; i++) {
+      BinaryOp binaryOp = (BinaryOp) children.get(i);
+      Node operand = binaryOp.onlyChild();
+      Type common = TypeInferrer.widest(type, types.typeOf(operand));
+      if (!TypeInferrer.isArithmetic(binaryOp.operator.kind)) {
+        convert(type, common);
+        emitPrimitive(operand, common);
+        emitPrimitiveComparison(binaryOp.operator.kind, common);
+        type = Type.BOOLEAN_TYPE;
+        continue;
+      }
+
+      // Compute int arithmetic in long, so that overflow can be detected.
+      Type operation = common == Type.INT_TYPE ? Type.LONG_TYPE : common;
+      convert(type, operation);
+      emitPrimitive(operand, operation);
+
+      switch (binaryOp.operator.kind) {
+        case PLUS:
+          methodVisitor.visitInsn(operation.getOpcode(IADD));
+          break;
+        case MINUS:
+          methodVisitor.visitInsn(operation.getOpcode(ISUB));
+          break;
+        case STAR:
+          methodVisitor.visitInsn(operation.getOpcode(IMUL));
+          break;
+        case DIVIDE:
+          methodVisitor.visitInsn(operation.getOpcode(IDIV));
+          break;
+        case MODULUS:
+          methodVisitor.visitInsn(operation.getOpcode(IREM));
+          break;
+      }
+
+      if (common == Type.INT_TYPE) {
+        Label overflow = new Label();
+        overflows.put(i, overflow);
+        methodVisitor.visitInsn(DUP2);
+        methodVisitor.visitInsn(DUP2);
+        methodVisitor.visitInsn(L2I);
+        methodVisitor.visitInsn(I2L);
+        methodVisitor.visitInsn(LCMP);
+        methodVisitor.visitJumpInsn(IFNE, overflow);
+        methodVisitor.visitInsn(L2I);
+      }
+      type = common;
+    }
+  }
+
+  /**
+   * Leaves 1 or 0 on the stack, comparing the top two primitives of the given type.
+   */
+  private void emitPrimitiveComparison(Token.Kind kind, Type type) {
+    MethodVisitor methodVisitor = methodStack.peek();
+
+    // Jump to false on the opposite condition.
+    int opcode = jumpOpcode(kind, false);
+    if (type == Type.INT_TYPE)
+      opcode += IF_ICMPEQ - IFEQ;
+    else if (type == Type.LONG_TYPE)
+      methodVisitor.visitInsn(LCMP);
+    else
+      // NaN compares false either way.
+      methodVisitor.visitInsn(kind == Token.Kind.LESSER || kind == Token.Kind.LEQ ? DCMPG : DCMPL);
+
+    Label isFalse = new Label(), end = new Label();
+    methodVisitor.visitJumpInsn(opcode, isFalse);
+    methodVisitor.visitInsn(ICONST_1);
+    methodVisitor.visitJumpInsn(GOTO, end);
+    methodVisitor.visitLabel(isFalse);
+    methodVisitor.visitInsn(ICONST_0);
+    methodVisitor.visitLabel(end);
+  }
+
+  /**
+   * Returns the IFxx opcode that jumps when the comparison {@code kind} is {@code outcome}.
+   * Add {@code IF_ICMPEQ - IFEQ} for the two-operand int version.
+   */
+  private static int jumpOpcode(Token.Kind kind, boolean outcome) {
+    switch (kind) {
+      case LESSER:
+        return outcome ? IFLT : IFGE;
+      case LEQ:
+        return outcome ? IFLE : IFGT;
+      case GREATER:
+        return outcome ? IFGT : IFLE;
+      case GEQ:
+        return outcome ? IFGE : IFLT;
+      case EQUALS:
+        return outcome ? IFEQ : IFNE;
+      case NOT:
+        return outcome ? IFNE : IFEQ;
+      default:
+        throw new RuntimeException("Unsupported primitive operator " + kind);
+    }
+  }
+
+  private static String intDescriptor(int arity) {
+    StringBuilder descriptor = new StringBuilder("(");
+    for (int i = 0; i < arity; i++) {
+      descriptor.append('I');
+    }
+    return descriptor.append(")I").toString();
+  }
+
+  private static String intEntryDescriptor(int arity) {
+    String descriptor = intDescriptor(arity);
+    return descriptor.substring(0, descriptor.length() - 1) + "Ljava/lang/Object;";
+  }
+
+  /**
+   * Hands calls whose arguments are all Integers off to the int specialization of this
+   * function. Anything else falls through to the generic body. When the specialization
+   * overflows, the call starts over generically, and so do the next
+   * {@link #OVERFLOW_COOLDOWN} calls. That covers the rest of a recursion whose results no
+   * longer fit in an int without trying each level as ints first. Afterwards even small
+   * calls get the specialization again. The countdown is shared by all threads. It is
+   * volatile so that an overflow is seen by every thread straight away, but counting down
+   * isn't atomic, as losing an update only costs a call on one path or the other.
+   */
+  private void emitIntBridge(FunctionDecl functionDecl) {
+    MethodVisitor methodVisitor = methodStack.peek();
+    Label generic = new Label(), tryStart = new Label(), tryEnd = new Label();
+    Label overflow = new Label();
+    int arity = functionDecl.arguments().children().size();
+    String flag = overflowFlag(functionDecl);
+    classWriter.visitField(ACC_PRIVATE + ACC_STATIC + ACC_VOLATILE, flag, "I", null, null)
+        .visitEnd();
+
+    // if (flag > 0) { flag--; goto generic; }
+    Label specialized = new Label();
+    methodVisitor.visitFieldInsn(GETSTATIC, scope.getModuleName(), flag, "I");
+    methodVisitor.visitJumpInsn(IFLE, specialized);
+    methodVisitor.visitFieldInsn(GETSTATIC, scope.getModuleName(), flag, "I");
+    methodVisitor.visitInsn(ICONST_1);
+    methodVisitor.visitInsn(ISUB);
+    methodVisitor.visitFieldInsn(PUTSTATIC, scope.getModuleName(), flag, "I");
+    methodVisitor.visitJumpInsn(GOTO, generic);
+    methodVisitor.visitLabel(specialized);
+    for (int i = 0; i < arity; i++) {
+      methodVisitor.visitVarInsn(ALOAD, i);
+      methodVisitor.visitTypeInsn(INSTANCEOF, "java/lang/Integer");
+      methodVisitor.visitJumpInsn(IFEQ, generic);
+    }
+
+    methodVisitor.visitTryCatchBlock(tryStart, tryEnd, overflow, "loop/runtime/Numbers$Overflow");
+    methodVisitor.visitLabel(tryStart);
+    for (int i = 0; i < arity; i++) {
+      methodVisitor.visitVarInsn(ALOAD, i);
+      methodVisitor.visitTypeInsn(CHECKCAST, "java/lang/Integer");
+      methodVisitor.visitMethodInsn(INVOKEVIRTUAL, "java/lang/Integer", "intValue", "()I");
+    }
+    methodVisitor.visitMethodInsn(INVOKESTATIC, scope.getModuleName(),
+        normalizeMethodName(functionDecl.scopedName()), intDescriptor(arity));
+    box(Type.INT_TYPE);
+    methodVisitor.visitInsn(ARETURN);
+    methodVisitor.visitLabel(tryEnd);
+
+    // The specialization has no side effects, so it is safe to start over generically.
+    methodVisitor.visitLabel(overflow);
+    methodVisitor.visitInsn(POP);
+    methodVisitor.visitIntInsn(BIPUSH, OVERFLOW_COOLDOWN);
+    methodVisitor.visitFieldInsn(PUTSTATIC, scope.getModuleName(), flag, "I");
+    methodVisitor.visitLabel(generic);
+  }
+
+  private static String overflowFlag(FunctionDecl functionDecl) {
+    return "$overflowed$" + normalizeMethodName(functionDecl.scopedName());
+  }
+
+  /**
+   * Emits a private {@code (I...)Object} overload of an int function, which calls sites
+   * with arguments proven to be ints link to (see {@link TypeInferrer#isIntCall}). It goes
+   * straight to the int specialization, unless that recently overflowed or does so now, in
+   * which case it boxes the arguments and calls the generic function instead. Catching the
+   * overflow here rather than at the call site keeps whatever the caller has on its stack.
+   */
+  private void emitIntEntry(FunctionDecl functionDecl) {
+    String name = normalizeMethodName(functionDecl.scopedName());
+    int arity = functionDecl.arguments().children().size();
+    MethodVisitor methodVisitor = classWriter.visitMethod(ACC_PRIVATE + ACC_STATIC, name,
+        intEntryDescriptor(arity), null, null);
+    methodStack.push(methodVisitor);
+    Label generic = new Label(), tryStart = new Label(), tryEnd = new Label();
+    Label overflow = new Label();
+
+    // The generic function counts down the cooldown itself.
+    methodVisitor.visitFieldInsn(GETSTATIC, scope.getModuleName(), overflowFlag(functionDecl),
+        "I");
+    methodVisitor.visitJumpInsn(IFGT, generic);
+
+    methodVisitor.visitTryCatchBlock(tryStart, tryEnd, overflow, "loop/runtime/Numbers$Overflow");
+    methodVisitor.visitLabel(tryStart);
+    for (int i = 0; i < arity; i++) {
+      methodVisitor.visitVarInsn(ILOAD, i);
+    }
+    methodVisitor.visitMethodInsn(INVOKESTATIC, scope.getModuleName(), name, intDescriptor(arity));
+    box(Type.INT_TYPE);
+    methodVisitor.visitInsn(ARETURN);
+    methodVisitor.visitLabel(tryEnd);
+
+    methodVisitor.visitLabel(overflow);
+    methodVisitor.visitInsn(POP);
+    methodVisitor.visitIntInsn(BIPUSH, OVERFLOW_COOLDOWN);
+    methodVisitor.visitFieldInsn(PUTSTATIC, scope.getModuleName(), overflowFlag(functionDecl),
+        "I");
+    methodVisitor.visitLabel(generic);
+    for (int i = 0; i < arity; i++) {
+      methodVisitor.visitVarInsn(ILOAD, i);
+      box(Type.INT_TYPE);
+    }
+    methodVisitor.visitMethodInsn(INVOKESTATIC, scope.getModuleName(), name,
+        genericDescriptor(arity));
+    methodVisitor.visitInsn(ARETURN);
+
+    methodVisitor.visitMaxs(0, 0);
+    methodVisitor.visitEnd();
+    methodStack.pop();
+  }
+
+  /**
+   * Emits a private {@code (I...)I} overload of a function proven to only take and return
+   * ints (see {@link TypeInferrer#inferSignatures}). Its arguments live unboxed in their
+   * slots, and tail calls to itself are a plain jump, so it never allocates. Arithmetic
+   * throws {@link loop.runtime.Numbers.Overflow} rather than wrapping around.
+   */
+  private void emitIntSpecialization(FunctionDecl functionDecl) {
+    MethodVisitor methodVisitor = classWriter.visitMethod(ACC_PRIVATE + ACC_STATIC,
+        normalizeMethodName(functionDecl.scopedName()),
+        intDescriptor(functionDecl.arguments().children().size()),
+        null,
+        null);
+    methodStack.push(methodVisitor);
+    functionStack.push(new Context(functionDecl));
+    trackLineAndColumn(functionDecl);
+
+    Label start = new Label();
+    methodVisitor.visitLabel(start);
+
+    if (!functionDecl.patternMatching) {
+      emitIntExpression(functionDecl.children().get(0),
+          TypeInferrer.intArguments(functionDecl, null), start);
+      methodVisitor.visitInsn(IRETURN);
+    } else {
+      for (Node child : functionDecl.children()) {
+        PatternRule rule = (PatternRule) child;
+        Map<String, Integer> arguments = TypeInferrer.intArguments(functionDecl, rule);
+        Label nextRule = new Label();
+
+        for (int i = 0, patternsSize = rule.patterns.size(); i < patternsSize; i++) {
+          Node pattern = rule.patterns.get(i);
+          if (pattern instanceof IntLiteral) {
+            methodVisitor.visitVarInsn(ILOAD, i);
+            methodVisitor.visitLdcInsn(((IntLiteral) pattern).value);
+            methodVisitor.visitJumpInsn(IF_ICMPNE, nextRule);
+          }
+        }
+
+        if (rule.rhs != null) {
+          emitIntExpression(rule.rhs, arguments, start);
+          methodVisitor.visitInsn(IRETURN);
+        } else {
+          for (Node node : rule.children()) {
+            Guard guard = (Guard) node;
+            Label nextGuard = new Label();
+
+            if (!(guard.expression instanceof OtherwiseGuard))
+              emitIntJump(guard.expression, arguments, start, false, nextGuard);
+            emitIntExpression(guard.line, arguments, start);
+            methodVisitor.visitInsn(IRETURN);
+            methodVisitor.visitLabel(nextGuard);
+          }
+        }
+        methodVisitor.visitLabel(nextRule);
+      }
+
+      // Unreachable, as the last rule always matches.
+      methodVisitor.visitInsn(ICONST_0);
+      methodVisitor.visitInsn(IRETURN);
+    }
+
+    methodVisitor.visitMaxs(0, 0);
+    methodVisitor.visitEnd();
+    functionStack.pop();
+    methodStack.pop();
+  }
+
+  /**
+   * Emits an expression of an int function, given the argument slot each name is bound to.
+   */
+  private void emitIntExpression(Node node, Map<String, Integer> arguments, Label start) {
+    MethodVisitor methodVisitor = methodStack.peek();
+
+    if (node instanceof IntLiteral)
+      methodVisitor.visitLdcInsn(((IntLiteral) node).value);
+    else if (node instanceof Variable)
+      methodVisitor.visitVarInsn(ILOAD, arguments.get(((Variable) node).name));
+    else if (node instanceof Computation) {
+      List<Node> children = node.children();
+      emitIntExpression(children.get(0), arguments, start);
+
+      for (int i = 1, childrenSize = children.size(); i < childrenSize; i++) {
+        emitIntOperation((BinaryOp) children.get(i), arguments, start);
+      }
+    } else if (node instanceof Call) {
+      Call call = (Call) node;
+      List<Node> args = call.args().children();
+      for (Node arg : args) {
+        emitIntExpression(arg, arguments, start);
+      }
+
+      // Tail calls to ourselves just rebind the arguments and start over.
+      if (call.isTailCall() && call.name().equals(functionStack.peek().thisFunction.name())) {
+        for (int i = args.size() - 1; i >= 0; i--) {
+          methodVisitor.visitVarInsn(ISTORE, i);
+        }
+        methodVisitor.visitJumpInsn(GOTO, start);
+      } else
+        methodVisitor.visitMethodInsn(INVOKESTATIC, scope.getModuleName(),
+            normalizeMethodName(call.name()),
+            intDescriptor(args.size()));
+    } else {
+      // Ternary if/unless expressions.
+      List<Node> children = node.children();
+      Label elseBranch = new Label();
+      Label end = new Label();
+
+      emitIntJump(children.get(0), arguments, start, node instanceof TernaryUnlessExpression,
+          elseBranch);
+      emitIntExpression(children.get(1), arguments, start);
+      methodVisitor.visitJumpInsn(GOTO, end);
+      methodVisitor.visitLabel(elseBranch);
+      emitIntExpression(children.get(2), arguments, start);
+      methodVisitor.visitLabel(end);
+    }
+  }
+
+  private void emitIntOperation(BinaryOp binaryOp, Map<String, Integer> arguments, Label start) {
+    MethodVisitor methodVisitor = methodStack.peek();
+    emitIntExpression(binaryOp.onlyChild(), arguments, start);
+
+    switch (binaryOp.operator.kind) {
+      case PLUS:
+        methodVisitor.visitMethodInsn(INVOKESTATIC, "loop/runtime/Numbers", "addExact", "(II)I");
+        break;
+      case MINUS:
+        methodVisitor.visitMethodInsn(INVOKESTATIC, "loop/runtime/Numbers", "subtractExact",
+            "(II)I");
+        break;
+      case STAR:
+        methodVisitor.visitMethodInsn(INVOKESTATIC, "loop/runtime/Numbers", "multiplyExact",
+            "(II)I");
+        break;
+      case DIVIDE:
+        methodVisitor.visitMethodInsn(INVOKESTATIC, "loop/runtime/Numbers", "divideExact",
+            "(II)I");
+        break;
+      case MODULUS:
+        methodVisitor.visitInsn(IREM);
+        break;
+    }
+  }
+
+  /**
+   * Jumps to the given label if the int comparison evaluates to {@code outcome}.
+   */
+  private void emitIntJump(Node comparison,
+                           Map<String, Integer> arguments,
+                           Label start,
+                           boolean outcome,
+                           Label label) {
+    List<Node> children = comparison.children();
+    emitIntExpression(children.get(0), arguments, start);
+    for (int i = 1, last = children.size() - 1; i < last; i++) {
+      emitIntOperation((BinaryOp) children.get(i), arguments, start);
+    }
+
+    BinaryOp binaryOp = (BinaryOp) children.get(children.size() - 1);
+    emitIntExpression(binaryOp.onlyChild(), arguments, start);
+    methodStack.peek().visitJumpInsn(jumpOpcode(binaryOp.operator.kind, outcome)
+        + IF_ICMPEQ - IFEQ, label);
+  }
+
+  /**
+   * Emits a typed expression as an unboxed primitive, widened to the given type.
+   */
+  private void emitPrimitive(Node node, Type as) {
+    MethodVisitor methodVisitor = methodStack.peek();
+    Type type = types.typeOf(node);
+
+    if (node instanceof IntLiteral)
+      methodVisitor.visitLdcInsn(((IntLiteral) node).value);
+    else if (node instanceof LongLiteral)
+      methodVisitor.visitLdcInsn(((LongLiteral) node).value);
+    else if (node instanceof DoubleLiteral)
+      methodVisitor.visitLdcInsn(((DoubleLiteral) node).value);
+    else if (node instanceof Computation)
+      emitPrimitiveComputation((Computation) node, null);
+    else if (node instanceof Variable
+        && functionStack.peek().intLocalVarIndex.containsKey(((Variable) node).name))
+      methodVisitor.visitVarInsn(ILOAD,
+          functionStack.peek().intLocalVarIndex.get(((Variable) node).name));
+    else {
+      emit(node);
+      methodVisitor.visitTypeInsn(CHECKCAST, "java/lang/Number");
+      methodVisitor.visitMethodInsn(INVOKEVIRTUAL, "java/lang/Number",
+          type.getClassName() + "Value", "()" + type.getDescriptor());
+    }
+
+    convert(type, as);
+  }
+
+  private void convert(Type from, Type to) {
+    if (from == to)
+      return;
+
+    MethodVisitor methodVisitor = methodStack.peek();
+    if (from == Type.INT_TYPE)
+      methodVisitor.visitInsn(to == Type.LONG_TYPE ? I2L : I2D);
+    else if (from == Type.LONG_TYPE)
+      methodVisitor.visitInsn(L2D);
+  }
+
+  private void box(Type type) {
+    String wrapper;
+    if (type == Type.INT_TYPE)
+      wrapper = "java/lang/Integer";
+    else if (type == Type.LONG_TYPE)
+      wrapper = "java/lang/Long";
+    else if (type == Type.DOUBLE_TYPE)
+      wrapper = "java/lang/Double";
+    else
+      wrapper = "java/lang/Boolean";
+
+    methodStack.peek().visitMethodInsn(INVOKESTATIC, wrapper, "valueOf",
+        "(" + type.getDescriptor() + ")L" + wrapper + ";");
+  }
+
   private final Emitter dereferenceEmitter = new Emitter() {
     @Override
     public void emitCode(Node node) {
@@ -273,7 +1015,7 @@ import java.util.concurrent.atomic.AtomicInteger;
       boolean isStatic = resolvedFunction != null, isClosure = false;
 
       // Is this a tail-recursive function?
-      boolean isTailRecursive = call.isTailCall()
+      boolean isTailRecursive = isTailCall(context, call)
           && call.namespace() == null
           && !call.isJavaStatic()
           && context.thisFunction.equals(resolvedFunction);
@@ -313,25 +1055,54 @@ import java.util.concurrent.atomic.AtomicInteger;
         // "call-as-method" syntax.
         if (resolvedFunction.arguments().children().size() - argSize == 1) {
           callAsPostfix = true;
-          callAsPostfixVar = context.localVarIndex(context.newLocalVariable());
           argSize++;
-
-          // Save the top of the stack for use as the first argument.
-          methodVisitor.visitVarInsn(ASTORE, callAsPostfixVar);
         }
       }
 
+      // Calls to known Loop functions are linked once via invokedynamic (or called directly
+      // within the module), rather than looked up reflectively by module and function name
+      // on every call. Their arguments go straight onto the stack.
+      boolean isLinked = resolvedFunction != null && !isClosure && !call.isJavaStatic();
+      boolean isInlined = isLinked && isInlineable(resolvedFunction, argSize);
+      boolean isBounced = isLinked
+          && context.tailCallIndex >= 0
+          && isTailCall(context, call)
+          && call.namespace() == null
+          && trampolineCalls.contains(call)
+          && trampolineGroups.get(context.thisFunction).contains(resolvedFunction)
+          && resolvedFunction.arguments().children().size() == argSize;
+
+      // Save the top of the stack for use as the first argument, unless it is already where
+      // a linked call takes it from.
+      if (callAsPostfix && (isTailRecursive || isInlined || isBounced || !isLinked)) {
+        callAsPostfixVar = context.localVarIndex(context.newLocalVariable());
+        methodVisitor.visitVarInsn(ASTORE, callAsPostfixVar);
+      }
+
+      // Our own list tail goes back in as an offset into the same list.
+      int tailOffset = callAsPostfix ? -1 : tailOffset(context, resolvedFunction, arguments);
+      if (tailOffset >= 0) {
+        emitListOffsetCall(arguments, tailOffset, isTailRecursive);
+        return;
+      }
+
       // TAIL CALL ELIMINATION:
       // Store the call-args into the args of this function and short-circuit the call.
       if (isTailRecursive) {
         List<Node> children = call.args().children();
-        for (int i = 0, childrenSize = children.size(); i < childrenSize; i++) {
-          Node arg = children.get(i);
+        for (Node arg : children) {
           emit(arg);                                        // value
+        }
 
-          // Store into the local vars representing the arguments to the recursive function.
+        // Store into the local vars representing the arguments to the recursive function,
+        // only once all of them are evaluated, as later ones may refer to earlier arguments.
+        for (int i = children.size() - 1; i >= 0; i--) {
           methodVisitor.visitVarInsn(ASTORE, i);
         }
+        if (context.listOffsetIndex >= 0) {
+          methodVisitor.visitInsn(ICONST_0);
+          methodVisitor.visitVarInsn(ISTORE, context.listOffsetIndex);
+        }
 
         // If there's anything left, pop it off. If some expression results in void on stack
         // rather than null or 0, then we might be screwed.
@@ -348,12 +1119,43 @@ import java.util.concurrent.atomic.AtomicInteger;
         return;
       }
 
+      if (isInlined) {
+        emitInlined(call, resolvedFunction, callAsPostfixVar);
+        return;
+      }
+
+      // Tail calls to the rest of our group go back to the trampoline instead.
+      if (isBounced) {
+        emitTailCall(call, resolvedFunction, callAsPostfixVar);
+        return;
+      }
+
       // push name of containing type if this is a static call.
       boolean isExternalFunction = resolvedFunction != null
           && resolvedFunction.moduleName != null
           && !scope.getModuleName().equals(resolvedFunction.moduleName);
 
-      if (isStatic && !call.isJavaStatic()) {
+      if (isLinked) {
+        // Int arguments to an int function go to its int entry point unboxed.
+        boolean isIntCall = !isExternalFunction
+            && types.isIntCall(call)
+            && types.isIntFunction(resolvedFunction);
+        for (Node arg : arguments) {
+          if (isIntCall)
+            emitPrimitive(arg, Type.INT_TYPE);
+          else
+            emit(arg);
+        }
+
+        if (isIntCall)
+          methodVisitor.visitMethodInsn(INVOKESTATIC, scope.getModuleName(), name,
+              intEntryDescriptor(argSize));
+        else
+          emitLinkedCall(methodVisitor, resolvedFunction, isExternalFunction, name, argSize);
+        return;
+      }
+
+      if (isStatic && !call.isJavaStatic() && !isLinked) {
         if (isClosure)
           methodVisitor.visitTypeInsn(CHECKCAST, "loop/runtime/Closure");
 
@@ -362,7 +1164,7 @@ import java.util.concurrent.atomic.AtomicInteger;
       }
 
       // push method name onto stack
-      if (!isClosure) {
+      if (isStatic && !isClosure && !isLinked) {
         // Emit the module name of the containing class for the resolved function, BUT only
         // if it is not in the same module as us.
         if (isExternalFunction) {
@@ -403,7 +1205,6 @@ import java.util.concurrent.atomic.AtomicInteger;
         methodVisitor.visitVarInsn(ALOAD, arrayVar);
 
         if (isStatic) {
-          // If JDK7, use invokedynamic instead for better performance.
           if (isClosure)
             methodVisitor.visitMethodInsn(INVOKESTATIC, "loop/runtime/Caller", "callClosure",
                 "(Lloop/runtime/Closure;Ljava/lang/String;[Ljava/lang/Object;)Ljava/lang/Object;");
@@ -419,13 +1220,12 @@ import java.util.concurrent.atomic.AtomicInteger;
           }
 
         } else {
-          // If JDK7, use invokedynamic instead for better performance.
-          methodVisitor.visitMethodInsn(INVOKESTATIC, "loop/runtime/Caller", "call",
-              "(Ljava/lang/Object;Ljava/lang/String;[Ljava/lang/Object;)Ljava/lang/Object;");
+          // Each dynamic call site gets its own inline cache of receiver types.
+          methodVisitor.visitInvokeDynamicInsn(name,
+              "(Ljava/lang/Object;[Ljava/lang/Object;)Ljava/lang/Object;", DYNAMIC_BOOTSTRAP);
         }
       } else {
         if (isStatic) {
-          // If JDK7, use invokedynamic instead for better performance.
           if (isClosure)
             methodVisitor.visitMethodInsn(INVOKESTATIC, "loop/runtime/Caller", "callClosure",
                 "(Lloop/runtime/Closure;Ljava/lang/String;)Ljava/lang/Object;");
@@ -441,42 +1241,696 @@ import java.util.concurrent.atomic.AtomicInteger;
           }
 
         } else {
-          // If JDK7, use invokedynamic instead for better performance.
-          methodVisitor.visitMethodInsn(INVOKESTATIC, "loop/runtime/Caller", "call",
-              "(Ljava/lang/Object;Ljava/lang/String;)Ljava/lang/Object;");
+          methodVisitor.visitInvokeDynamicInsn(name, "(Ljava/lang/Object;)Ljava/lang/Object;",
+              DYNAMIC_BOOTSTRAP);
         }
       }
     }
   };
 
-  private final Emitter constructorCallEmitter = new Emitter() {
-    @Override
-    public void emitCode(Node node) {
-      ConstructorCall call = (ConstructorCall) node;
-      MethodVisitor methodVisitor = methodStack.peek();
-      Context context = functionStack.peek();
+  /**
+   * Whether calls to this function can be replaced with its body. It must be a small, plain
+   * one expression function that isn't already being inlined (so never recursive), and
+   * whose body means the same thing at the call site: it uses no variables but its own
+   * arguments, and every function it calls resolves to the same one there.
+   */
+  private boolean isInlineable(FunctionDecl function, int argSize) {
+    if (function == null
+        || inlineBudget <= 0
+        || function.isAnonymous()
+        || function.patternMatching
+        || function.cell != null
+        || function.exceptionHandler != null
+        || !function.whereBlock().isEmpty()
+        || function.children().size() != 1
+        || function.arguments() == null
+        || function.arguments().children().size() != argSize
+        || types.isIntFunction(function)
+        || trampolineGroups.containsKey(function)
+        || function.equals(functionStack.peek().thisFunction)
+        || inlineStack.contains(function))
+      return false;
+
+    Scope home = scope.scopeOf(function);
+    if (home == null)
+      return false;
+
+    Set<String> arguments = new HashSet<String>();
+    for (Node argument : function.arguments().children())
+      arguments.add(((ArgDeclList.Argument) argument).name());
+
+    int[] lines = { function.sourceLine, function.sourceLine };
+    int size = inlineCost(function.children().get(0), function, home, arguments, lines);
+    return size >= 0
+        && size <= inlineBudget
+        && nextInlinedLine + lines[1] - lines[0] < 0xFFFF;
+  }
 
-      // Try to resolve as an aliased dep first.
-      ClassDecl classDecl = null;
-      if (call.modulePart != null && call.modulePart.split("[.]").length == 1)
-        classDecl = scope.resolveAliasedType(
-            call.modulePart.substring(0, call.modulePart.length() - 1),
-            call.name);
+  /**
+   * The number of nodes in an inlineable function body, or -1 if it can't be inlined. Also
+   * widens the given range of lines to cover it.
+   */
+  private int inlineCost(Node node, FunctionDecl function, Scope home, Set<String> arguments,
+                         int[] lines) {
+    if (node == null)
+      return 0;
+    if (node.sourceLine > 0) {
+      lines[0] = Math.min(lines[0], node.sourceLine);
+      lines[1] = Math.max(lines[1], node.sourceLine);
+    }
 
-      // Resolve a loop type internally. Note that this makes dynamic linking
-      // of Loop types impossible, but we CAN link Java binaries dynamically.
-      if (classDecl == null)
-        classDecl = scope.resolve(call.name, true);
-      if (classDecl != null) {
+    List<Node> others = new ArrayList<Node>();
+    if (node instanceof Variable) {
+      return arguments.contains(((Variable) node).name) ? 1 : -1;
+    } else if (node instanceof Call) {
+      Call call = (Call) node;
+      if (call.namespace() != null && home != scope)
+        return -1;
+      if (!call.callJava() && !sameFunction(call.name(), function, home))
+        return -1;
+      others.add(call.args());
+    } else if (node instanceof Dereference) {
+      Dereference dereference = (Dereference) node;
+      if (dereference.constant()
+          || dereference.namespace() != null
+          || !sameFunction(dereference.name(), function, home))
+        return -1;
+    } else if (node instanceof IndexIntoList) {
+      others.add(((IndexIntoList) node).from());
+      others.add(((IndexIntoList) node).to());
+    } else if (node instanceof ListRange) {
+      others.add(((ListRange) node).from);
+      others.add(((ListRange) node).to);
+    } else if (node instanceof StringLiteral) {
+      if (((StringLiteral) node).parts != null)
+        others.addAll(((StringLiteral) node).parts);
+    } else if (!(node instanceof Computation
+        || node instanceof CallChain
+        || node instanceof CallArguments
+        || node instanceof BinaryOp
+        || node instanceof InlineListDef
+        || node instanceof InlineMapDef
+        || node instanceof TernaryIfExpression
+        || node instanceof TernaryUnlessExpression
+        || node instanceof IntLiteral
+        || node instanceof LongLiteral
+        || node instanceof FloatLiteral
+        || node instanceof DoubleLiteral
+        || node instanceof BigIntegerLiteral
+        || node instanceof BigDecimalLiteral
+        || node instanceof BooleanLiteral
+        || node instanceof JavaLiteral
+        || node instanceof TypeLiteral))
+      return -1;
+
+    int size = 1;
+    others.addAll(node.children());
+    for (Node other : others) {
+      if (other instanceof CallArguments.NamedArg)
+        return -1;
+
+      int cost = inlineCost(other, function, home, arguments, lines);
+      if (cost < 0)
+        return -1;
+      size += cost;
+    }
+    return size;
+  }
 
-        // Instatiate the loop object first. With the correct type
-        int objectVar = context.localVarIndex(context.newLocalVariable());
+  private boolean sameFunction(String name, FunctionDecl function, Scope home) {
+    FunctionDecl there = home.resolveFunction(name, true);
+    return there != function && scope.resolveFunctionOnStack(name) == there;
+  }
 
-        methodVisitor.visitTypeInsn(NEW, "loop/lang/LoopObject");
-        methodVisitor.visitInsn(DUP);
+  /**
+   * Emits the body of a function in place of a call to it. The arguments are evaluated into
+   * locals of their own first, just as they would be for the call, and the function's
+   * argument names stand for those while its body is emitted. The body's lines are set
+   * aside so that {@link StackTraceSanitizer} can show it as a call after all.
+   */
+  private void emitInlined(Call call, FunctionDecl function, int postfixVar) {
+    Context context = functionStack.peek();
+    MethodVisitor methodVisitor = methodStack.peek();
+    List<Node> arguments = function.arguments().children();
+
+    int[] slots = new int[arguments.size()];
+    int i = 0;
+    if (postfixVar >= 0)
+      slots[i++] = postfixVar;
+    for (Node arg : call.args().children()) {
+      emit(arg);
+      slots[i] = context.localVarIndex(context.newLocalVariable());
+      methodVisitor.visitVarInsn(ASTORE, slots[i++]);
+    }
 
-        methodVisitor.visitTypeInsn(NEW, "loop/lang/LoopClass");
-        methodVisitor.visitInsn(DUP);
+    Map<String, Integer> shadowedArguments = new HashMap<String, Integer>();
+    Map<String, Integer> shadowedInts = new HashMap<String, Integer>();
+    Map<String, Integer> shadowedLocals = new HashMap<String, Integer>();
+    for (i = 0; i < slots.length; i++) {
+      String name = ((ArgDeclList.Argument) arguments.get(i)).name();
+      shadowedArguments.put(name, context.argumentIndex.remove(name));
+      shadowedInts.put(name, context.intLocalVarIndex.remove(name));
+      shadowedLocals.put(name, context.localVarIndex.put(name, slots[i]));
+    }
+
+    int[] lines = { function.sourceLine, function.sourceLine };
+    Scope home = scope.scopeOf(function);
+    inlineCost(function.children().get(0), function, home, new HashSet<String>(
+        shadowedLocals.keySet()), lines);
+    String fileName = home instanceof Unit ? ((Unit) home).getFileName() : null;
+    if (fileName != null && !fileName.endsWith(".loop"))
+      fileName += ".loop";
+
+    StackTraceSanitizer.InlinedFunction site = new StackTraceSanitizer.InlinedFunction(
+        function.moduleName, normalizeMethodName(function.scopedName()), fileName,
+        lines[0], nextInlinedLine, lines[1] - lines[0] + 1, lineOf(call));
+    nextInlinedLine += site.lines;
+    inlinedFunctions.add(site);
+
+    // Tail calls in the body are only tail calls of ours if the body is what we return.
+    boolean isTail = isTailCall(context, call);
+    if (!isTail)
+      tailCallsSuppressed++;
+
+    inlineStack.push(function);
+    inlineSites.push(site);
+    trackLineAndColumn(function);
+    emit(function.children().get(0));
+
+    if (!isTail)
+      tailCallsSuppressed--;
+    inlineSites.pop();
+    inlineStack.pop();
+
+    for (String name : shadowedLocals.keySet()) {
+      restore(context.argumentIndex, name, shadowedArguments.get(name));
+      restore(context.intLocalVarIndex, name, shadowedInts.get(name));
+      restore(context.localVarIndex, name, shadowedLocals.get(name));
+    }
+
+    // Back on the caller's own line.
+    trackLineAndColumn(call);
+  }
+
+  private static void restore(Map<String, Integer> index, String name, Integer shadowed) {
+    if (shadowed == null)
+      index.remove(name);
+    else
+      index.put(name, shadowed);
+  }
+
+  /**
+   * Finds the functions in this module that tail call one another in a cycle, not counting
+   * calls to themselves which are already loops. Each of these is emitted under a private
+   * name, taking the {@link loop.runtime.TailCall} its tail calls to the others in its group
+   * are returned in, behind a bridge with its own name that bounces between them until they
+   * return anything else (see {@link #emitTrampoline}). Calls from anywhere else, and calls
+   * from inside the group which aren't tail calls, go through the bridge and so don't
+   * change at all.
+   */
+  private void findTrampolines(Unit unit) {
+    Map<FunctionDecl, Set<FunctionDecl>> callees =
+        new LinkedHashMap<FunctionDecl, Set<FunctionDecl>>();
+    for (FunctionDecl function : unit.functions()) {
+      if (function.cell != null
+          || function.exceptionHandler != null
+          || types.isIntFunction(function)
+          || listOffsetColumn(function) >= 0)
+        continue;
+
+      Set<FunctionDecl> called = new LinkedHashSet<FunctionDecl>();
+      for (Call call : tailCallsOf(function)) {
+        FunctionDecl callee = call.callJava() || call.namespace() != null
+            ? null
+            : unit.resolveFunction(call.name(), false);
+        if (callee != null && !callee.isAnonymous()) {
+          called.add(callee);
+          trampolineCalls.add(call);
+        }
+      }
+      callees.put(function, called);
+    }
+
+    for (FunctionDecl function : callees.keySet()) {
+      if (trampolineGroups.containsKey(function))
+        continue;
+
+      Set<FunctionDecl> reachable = reachableFrom(function, callees);
+      List<FunctionDecl> group = new ArrayList<FunctionDecl>();
+      for (FunctionDecl other : callees.keySet()) {
+        if (other == function
+            || reachable.contains(other) && reachableFrom(other, callees).contains(function))
+          group.add(other);
+      }
+
+      if (group.size() > 1)
+        for (FunctionDecl member : group)
+          trampolineGroups.put(member, group);
+    }
+  }
+
+  /**
+   * Whether the value of this call is what the function being emitted returns, looking
+   * through any functions inlined into it.
+   */
+  private boolean isTailCall(Context context, Call call) {
+    FunctionDecl function = inlineStack.isEmpty() ? context.thisFunction : inlineStack.peek();
+    return call.isTailCall()
+        && tailCallsSuppressed == 0
+        && tailCallsOf(function).contains(call);
+  }
+
+  /**
+   * The calls whose value a function returns as it is. Unlike {@link Call#isTailCall}, which
+   * also marks calls that are only the last thing in their expression (such as the last item
+   * of a list), these are found by walking down the branches that are returned.
+   */
+  private Set<Call> tailCallsOf(FunctionDecl function) {
+    Set<Call> calls = tailCalls.get(function);
+    if (calls != null)
+      return calls;
+
+    calls = Collections.newSetFromMap(new IdentityHashMap<Call, Boolean>());
+    if (function.patternMatching) {
+      for (Node child : function.children()) {
+        PatternRule rule = (PatternRule) child;
+        if (rule.rhs != null)
+          findTailCalls(rule.rhs, calls);
+        for (Node guard : rule.children())
+          findTailCalls(((Guard) guard).line, calls);
+      }
+    } else if (!function.children().isEmpty())
+      findTailCalls(function.children().get(function.children().size() - 1), calls);
+
+    tailCalls.put(function, calls);
+    return calls;
+  }
+
+  private static void findTailCalls(Node node, Set<Call> calls) {
+    node = unwrapped(node);
+    if (node instanceof CallChain && !node.children().isEmpty())
+      node = node.children().get(node.children().size() - 1);
+
+    if (node instanceof TernaryIfExpression || node instanceof TernaryUnlessExpression) {
+      findTailCalls(node.children().get(1), calls);
+      findTailCalls(node.children().get(2), calls);
+    } else if (node instanceof Call)
+      calls.add((Call) node);
+  }
+
+  private static Set<FunctionDecl> reachableFrom(FunctionDecl function,
+                                                 Map<FunctionDecl, Set<FunctionDecl>> callees) {
+    Set<FunctionDecl> reachable = new HashSet<FunctionDecl>();
+    Stack<FunctionDecl> toVisit = new Stack<FunctionDecl>();
+    toVisit.push(function);
+    while (!toVisit.isEmpty()) {
+      Set<FunctionDecl> called = callees.get(toVisit.pop());
+      if (called == null)
+        continue;
+
+      for (FunctionDecl callee : called)
+        if (reachable.add(callee))
+          toVisit.push(callee);
+    }
+    return reachable;
+  }
+
+  /**
+   * Instead of calling another function in our group, stores which one and its arguments
+   * in our {@link loop.runtime.TailCall} and returns that to the trampoline.
+   */
+  private void emitTailCall(Call call, FunctionDecl function, int postfixVar) {
+    Context context = functionStack.peek();
+    MethodVisitor methodVisitor = methodStack.peek();
+
+    int i = 0;
+    if (postfixVar >= 0) {
+      methodVisitor.visitVarInsn(ALOAD, context.tailCallIndex);
+      methodVisitor.visitFieldInsn(GETFIELD, "loop/runtime/TailCall", "arguments",
+          "[Ljava/lang/Object;");
+      methodVisitor.visitIntInsn(BIPUSH, i++);
+      methodVisitor.visitVarInsn(ALOAD, postfixVar);
+      methodVisitor.visitInsn(AASTORE);
+    }
+    for (Node arg : call.args().children()) {
+      methodVisitor.visitVarInsn(ALOAD, context.tailCallIndex);
+      methodVisitor.visitFieldInsn(GETFIELD, "loop/runtime/TailCall", "arguments",
+          "[Ljava/lang/Object;");
+      methodVisitor.visitIntInsn(BIPUSH, i++);
+      emit(arg);
+      methodVisitor.visitInsn(AASTORE);
+    }
+
+    methodVisitor.visitVarInsn(ALOAD, context.tailCallIndex);
+    methodVisitor.visitIntInsn(BIPUSH, trampolineGroups.get(function).indexOf(function));
+    methodVisitor.visitFieldInsn(PUTFIELD, "loop/runtime/TailCall", "target", "I");
+    methodVisitor.visitVarInsn(ALOAD, context.tailCallIndex);
+  }
+
+  /**
+   * The bridge into a group of mutually tail recursive functions: calls the given one with
+   * a fresh {@link loop.runtime.TailCall}, then for as long as what comes back is that same
+   * tail call, calls whichever function in the group it says with the arguments it holds.
+   */
+  private void emitTrampoline(int access, String name, String descriptor,
+                              List<FunctionDecl> group, int arity) {
+    MethodVisitor bridge = classWriter.visitMethod(access, name, descriptor, null, null);
+    int tailCall = arity, result = arity + 1;
+
+    int maxArity = 0;
+    for (FunctionDecl member : group)
+      maxArity = Math.max(maxArity, member.arguments().children().size());
+
+    bridge.visitTypeInsn(NEW, "loop/runtime/TailCall");
+    bridge.visitInsn(DUP);
+    bridge.visitIntInsn(BIPUSH, maxArity);
+    bridge.visitMethodInsn(INVOKESPECIAL, "loop/runtime/TailCall", "<init>", "(I)V");
+    bridge.visitVarInsn(ASTORE, tailCall);
+
+    for (int i = 0; i < arity; i++)
+      bridge.visitVarInsn(ALOAD, i);
+    bridge.visitVarInsn(ALOAD, tailCall);
+    bridge.visitMethodInsn(INVOKESTATIC, scope.getModuleName(), name + TRAMPOLINE_SUFFIX,
+        trampolineDescriptor(arity));
+
+    Label bounce = new Label(), done = new Label();
+    Label[] targets = new Label[group.size()];
+    for (int i = 0; i < targets.length; i++)
+      targets[i] = new Label();
+
+    bridge.visitLabel(bounce);
+    bridge.visitVarInsn(ASTORE, result);
+    bridge.visitVarInsn(ALOAD, result);
+    bridge.visitVarInsn(ALOAD, tailCall);
+    bridge.visitJumpInsn(IF_ACMPNE, done);
+    bridge.visitVarInsn(ALOAD, tailCall);
+    bridge.visitFieldInsn(GETFIELD, "loop/runtime/TailCall", "target", "I");
+    bridge.visitTableSwitchInsn(0, targets.length - 1, done, targets);
+
+    for (int i = 0; i < targets.length; i++) {
+      FunctionDecl member = group.get(i);
+      int memberArity = member.arguments().children().size();
+
+      bridge.visitLabel(targets[i]);
+      for (int j = 0; j < memberArity; j++) {
+        bridge.visitVarInsn(ALOAD, tailCall);
+        bridge.visitFieldInsn(GETFIELD, "loop/runtime/TailCall", "arguments",
+            "[Ljava/lang/Object;");
+        bridge.visitIntInsn(BIPUSH, j);
+        bridge.visitInsn(AALOAD);
+      }
+      bridge.visitVarInsn(ALOAD, tailCall);
+      bridge.visitMethodInsn(INVOKESTATIC, scope.getModuleName(),
+          normalizeMethodName(member.scopedName()) + TRAMPOLINE_SUFFIX,
+          trampolineDescriptor(memberArity));
+      bridge.visitJumpInsn(GOTO, bounce);
+    }
+
+    bridge.visitLabel(done);
+    bridge.visitVarInsn(ALOAD, result);
+    bridge.visitInsn(ARETURN);
+    bridge.visitMaxs(0, 0);
+    bridge.visitEnd();
+  }
+
+  private static String genericDescriptor(int arity) {
+    StringBuilder descriptor = new StringBuilder("(");
+    for (int i = 0; i < arity; i++)
+      descriptor.append("Ljava/lang/Object;");
+    return descriptor.append(")Ljava/lang/Object;").toString();
+  }
+
+  private static String trampolineDescriptor(int arity) {
+    StringBuilder descriptor = new StringBuilder("(");
+    for (int i = 0; i < arity; i++)
+      descriptor.append("Ljava/lang/Object;");
+    return descriptor.append("Lloop/runtime/TailCall;)Ljava/lang/Object;").toString();
+  }
+
+  private void emitLinkedCall(MethodVisitor methodVisitor,
+                              FunctionDecl resolvedFunction,
+                              boolean isExternalFunction,
+                              String name,
+                              int argSize) {
+    String module = isExternalFunction ? resolvedFunction.moduleName : scope.getModuleName();
+    String descriptor = genericDescriptor(argSize);
+
+    // Our own functions are right here, with exactly this signature.
+    if (!isExternalFunction
+        && resolvedFunction.arguments() != null
+        && resolvedFunction.arguments().children().size() == argSize) {
+      methodVisitor.visitMethodInsn(INVOKESTATIC, module, name, descriptor);
+      return;
+    }
+
+    methodVisitor.visitInvokeDynamicInsn(name, descriptor, LINKER_BOOTSTRAP, module, argSize);
+  }
+
+  /**
+   * The argument of a pattern matching function that is only ever destructured as a list
+   * (or ignored) and whose {@code [x:xs]} tail some rule passes straight back to the same
+   * function, or -1 if there is no such argument.
+   */
+  private int listOffsetColumn(FunctionDecl functionDecl) {
+    if (!functionDecl.patternMatching
+        || functionDecl.cell != null
+        || types.isIntFunction(functionDecl))
+      return -1;
+
+    int arity = functionDecl.arguments().children().size();
+    for (int column = 0; column < arity; column++) {
+      boolean destructured = true, recursive = false;
+      for (Node child : functionDecl.children()) {
+        PatternRule rule = (PatternRule) child;
+        Node pattern = column < rule.patterns.size() ? rule.patterns.get(column) : null;
+        if (pattern instanceof WildcardPattern)
+          continue;
+        if (!(pattern instanceof ListDestructuringPattern)) {
+          destructured = false;
+          break;
+        }
+
+        List<Node> terms = pattern.children();
+        Node tail = terms.isEmpty() ? null : terms.get(terms.size() - 1);
+        if (tail instanceof Variable
+            && passesTail(rule, functionDecl, column, ((Variable) tail).name))
+          recursive = true;
+      }
+
+      if (destructured && recursive)
+        return column;
+    }
+    return -1;
+  }
+
+  /**
+   * Looks for a call to the given function with the tail in the given argument position.
+   * This needn't find every such call, as missing one only misses an optimization.
+   */
+  private static boolean passesTail(Node node, FunctionDecl function, int column, String tail) {
+    if (node == null)
+      return false;
+
+    if (node instanceof Call) {
+      Call call = (Call) node;
+      if (call.args() == null)
+        return false;
+
+      List<Node> args = call.args().children();
+      if (call.namespace() == null
+          && function.name().equals(call.name())
+          && args.size() == function.arguments().children().size()
+          && unwrapped(args.get(column)) instanceof Variable
+          && ((Variable) unwrapped(args.get(column))).name.equals(tail))
+        return true;
+      return passesTail(call.args(), function, column, tail);
+    }
+
+    if (node instanceof PatternRule && passesTail(((PatternRule) node).rhs, function, column, tail))
+      return true;
+    if (node instanceof Guard
+        && (passesTail(((Guard) node).expression, function, column, tail)
+        || passesTail(((Guard) node).line, function, column, tail)))
+      return true;
+
+    for (Node child : node.children())
+      if (passesTail(child, function, column, tail))
+        return true;
+    return false;
+  }
+
+  /**
+   * Whether the variable is read anywhere in the node, other than where a call to the function
+   * itself passes it on in the given column, as the tail of the list walked by offset (see
+   * {@link #tailOffset}). Pass a column of -1 to count every read. Closures count as reading
+   * it, since they may capture it.
+   */
+  private static boolean isRead(Node node, FunctionDecl function, int column, String name) {
+    if (node == null)
+      return false;
+    if (node instanceof Variable)
+      return name.equals(((Variable) node).name);
+    if (node instanceof FunctionDecl)
+      return true;
+
+    if (node instanceof Call) {
+      Call call = (Call) node;
+      if (call.args() == null)
+        return false;
+
+      List<Node> args = call.args().children();
+      boolean passesOn = column >= 0
+          && call.namespace() == null
+          && !call.callJava()
+          && !call.isJavaStatic()
+          && function.name().equals(call.name())
+          && args.size() == function.arguments().children().size()
+          && unwrapped(args.get(column)) instanceof Variable
+          && ((Variable) unwrapped(args.get(column))).name.equals(name);
+      for (int i = 0; i < args.size(); i++)
+        if ((!passesOn || i != column) && isRead(args.get(i), function, column, name))
+          return true;
+      return false;
+    }
+
+    // Expressions that hang off a node other than as its children.
+    List<Node> subnodes = new ArrayList<Node>();
+    if (node instanceof ConstructorCall && ((ConstructorCall) node).args() != null)
+      subnodes.add(((ConstructorCall) node).args());
+    else if (node instanceof CallArguments.NamedArg)
+      subnodes.add(((CallArguments.NamedArg) node).arg);
+    else if (node instanceof IndexIntoList) {
+      subnodes.add(((IndexIntoList) node).from());
+      subnodes.add(((IndexIntoList) node).to());
+    } else if (node instanceof ListRange) {
+      subnodes.add(((ListRange) node).from);
+      subnodes.add(((ListRange) node).to);
+    } else if (node instanceof PatternRule)
+      subnodes.add(((PatternRule) node).rhs);
+    else if (node instanceof Guard) {
+      subnodes.add(((Guard) node).expression);
+      subnodes.add(((Guard) node).line);
+    } else if (node instanceof DestructuringPair)
+      subnodes.add(((DestructuringPair) node).rhs);
+    else if (node instanceof StringLiteral && ((StringLiteral) node).parts != null)
+      subnodes.addAll(((StringLiteral) node).parts);
+    else if (node instanceof Comprehension) {
+      Comprehension comprehension = (Comprehension) node;
+      subnodes.add(comprehension.inList());
+      subnodes.add(comprehension.filter());
+      subnodes.addAll(comprehension.projection());
+    }
+    subnodes.addAll(node.children());
+
+    for (Node subnode : subnodes)
+      if (isRead(subnode, function, column, name))
+        return true;
+    return false;
+  }
+
+  private static Node unwrapped(Node node) {
+    while (node instanceof Computation && node.children().size() == 1)
+      node = node.children().get(0);
+    return node;
+  }
+
+  /**
+   * If this is a call to the current function passing on the tail of a list it walks down
+   * by offset, returns how far past the current offset the tail starts, else -1.
+   */
+  private static int tailOffset(Context context, FunctionDecl resolvedFunction, List<Node> args) {
+    if (context.listOffsetColumn < 0
+        || !context.thisFunction.equals(resolvedFunction)
+        || args.size() != context.arguments.size())
+      return -1;
+
+    Node arg = unwrapped(args.get(context.listOffsetColumn));
+    if (!(arg instanceof Variable))
+      return -1;
+
+    // Make sure the name still refers to the tail, not something that shadows it.
+    String name = ((Variable) arg).name;
+    Integer index = context.localVarIndex(name);
+    if (index == null
+        || context.intLocalVarIndex.containsKey(name)
+        || context.argumentIndex.containsKey(name)
+        || !context.tailOffsets.containsKey(index))
+      return -1;
+    return context.tailOffsets.get(index);
+  }
+
+  private void emitListOffsetCall(List<Node> args, int tailOffset, boolean isTailRecursive) {
+    Context context = functionStack.peek();
+    MethodVisitor methodVisitor = methodStack.peek();
+
+    for (int i = 0; i < args.size(); i++) {
+      if (i == context.listOffsetColumn)
+        methodVisitor.visitVarInsn(ALOAD, i);
+      else
+        emit(args.get(i));
+    }
+    methodVisitor.visitVarInsn(ILOAD, context.listOffsetIndex);
+    methodVisitor.visitLdcInsn(tailOffset);
+    methodVisitor.visitInsn(IADD);
+
+    if (isTailRecursive) {
+      methodVisitor.visitVarInsn(ISTORE, context.listOffsetIndex);
+      for (int i = args.size() - 1; i >= 0; i--)
+        methodVisitor.visitVarInsn(ASTORE, i);
+      methodVisitor.visitJumpInsn(GOTO, context.startOfFunction);
+    } else
+      methodVisitor.visitMethodInsn(INVOKESTATIC, scope.getModuleName(),
+          normalizeMethodName(context.thisFunction.scopedName()) + LIST_OFFSET_SUFFIX,
+          listOffsetDescriptor(args.size()));
+  }
+
+  private void emitListOffsetBridge(int access, String name, String descriptor, int arity) {
+    MethodVisitor bridge = classWriter.visitMethod(access, name, descriptor, null, null);
+    for (int i = 0; i < arity; i++)
+      bridge.visitVarInsn(ALOAD, i);
+    bridge.visitInsn(ICONST_0);
+    bridge.visitMethodInsn(INVOKESTATIC, scope.getModuleName(), name + LIST_OFFSET_SUFFIX,
+        listOffsetDescriptor(arity));
+    bridge.visitInsn(ARETURN);
+    bridge.visitMaxs(0, 0);
+    bridge.visitEnd();
+  }
+
+  private static String listOffsetDescriptor(int arity) {
+    StringBuilder descriptor = new StringBuilder("(");
+    for (int i = 0; i < arity; i++)
+      descriptor.append("Ljava/lang/Object;");
+    return descriptor.append("I)Ljava/lang/Object;").toString();
+  }
+
+  private final Emitter constructorCallEmitter = new Emitter() {
+    @Override
+    public void emitCode(Node node) {
+      ConstructorCall call = (ConstructorCall) node;
+      MethodVisitor methodVisitor = methodStack.peek();
+      Context context = functionStack.peek();
+
+      // Try to resolve as an aliased dep first.
+      ClassDecl classDecl = null;
+      if (call.modulePart != null && call.modulePart.split("[.]").length == 1)
+        classDecl = scope.resolveAliasedType(
+            call.modulePart.substring(0, call.modulePart.length() - 1),
+            call.name);
+
+      // Resolve a loop type internally. Note that this makes dynamic linking
+      // of Loop types impossible, but we CAN link Java binaries dynamically.
+      if (classDecl == null)
+        classDecl = scope.resolve(call.name, true);
+      if (classDecl != null) {
+
+        // Instatiate the loop object first. With the correct type
+        int objectVar = context.localVarIndex(context.newLocalVariable());
+
+        methodVisitor.visitTypeInsn(NEW, "loop/lang/LoopObject");
+        methodVisitor.visitInsn(DUP);
+
+        methodVisitor.visitTypeInsn(NEW, "loop/lang/LoopClass");
+        methodVisitor.visitInsn(DUP);
         methodVisitor.visitLdcInsn(classDecl.name);
         methodVisitor.visitMethodInsn(INVOKESPECIAL, "loop/lang/LoopClass", "<init>",
             "(Ljava/lang/String;)V");
@@ -584,10 +2038,15 @@ import java.util.concurrent.atomic.AtomicInteger;
     @Override
     public void emitCode(Node node) {
       BinaryOp binaryOp = (BinaryOp) node;
+      Token.Kind kind = binaryOp.operator.kind;
+      if (kind == Token.Kind.AND || kind == Token.Kind.OR) {
+        emitShortCircuit(binaryOp);
+        return;
+      }
       emitOnlyChild(binaryOp);
 
       MethodVisitor methodVisitor = methodStack.peek();
-      switch (binaryOp.operator.kind) {
+      switch (kind) {
         case PLUS:
           methodVisitor.visitMethodInsn(INVOKESTATIC, "loop/runtime/Operations", "plus",
               "(Ljava/lang/Object;Ljava/lang/Object;)Ljava/lang/Object;");
@@ -629,16 +2088,6 @@ import java.util.concurrent.atomic.AtomicInteger;
           methodVisitor.visitMethodInsn(INVOKESTATIC, "loop/runtime/Operations", "equal",
               "(Ljava/lang/Object;Ljava/lang/Object;)Ljava/lang/Boolean;");
           break;
-        case AND:
-          methodVisitor.visitMethodInsn(INVOKESTATIC, "loop/runtime/Operations", "and",
-              "(Ljava/lang/Object;Ljava/lang/Object;)Ljava/lang/Boolean;");
-//          methodVisitor.visitInsn(IAND);
-          break;
-        case OR:
-          methodVisitor.visitMethodInsn(INVOKESTATIC, "loop/runtime/Operations", "or",
-              "(Ljava/lang/Object;Ljava/lang/Object;)Ljava/lang/Boolean;");
-//          methodVisitor.visitInsn(IOR);
-          break;
         case NOT:
           methodVisitor.visitMethodInsn(INVOKESTATIC, "loop/runtime/Operations", "notEqual",
               "(Ljava/lang/Object;Ljava/lang/Object;)Ljava/lang/Boolean;");
@@ -654,6 +2103,29 @@ import java.util.concurrent.atomic.AtomicInteger;
     }
   };
 
+  /**
+   * Applies and/or to the Boolean on the stack, only evaluating the right side if the left
+   * doesn't already decide the result.
+   */
+  private void emitShortCircuit(BinaryOp binaryOp) {
+    MethodVisitor methodVisitor = methodStack.peek();
+    boolean isAnd = binaryOp.operator.kind == Token.Kind.AND;
+    Label decided = new Label(), end = new Label();
+
+    methodVisitor.visitTypeInsn(CHECKCAST, "java/lang/Boolean");
+    methodVisitor.visitMethodInsn(INVOKEVIRTUAL, "java/lang/Boolean", "booleanValue", "()Z");
+    methodVisitor.visitJumpInsn(isAnd ? IFEQ : IFNE, decided);
+
+    emitOnlyChild(binaryOp);
+    methodVisitor.visitTypeInsn(CHECKCAST, "java/lang/Boolean");
+    methodVisitor.visitJumpInsn(GOTO, end);
+
+    methodVisitor.visitLabel(decided);
+    methodVisitor.visitFieldInsn(GETSTATIC, "java/lang/Boolean", isAnd ? "FALSE" : "TRUE",
+        "Ljava/lang/Boolean;");
+    methodVisitor.visitLabel(end);
+  }
+
   private final Emitter assignmentEmitter = new Emitter() {
     @Override
     public void emitCode(Node node) {
@@ -715,7 +2187,14 @@ import java.util.concurrent.atomic.AtomicInteger;
       Variable var = (Variable) node;
 
       Context context = functionStack.peek();
-      Integer index = context.argumentIndex.get(var.name);
+      Integer index = context.intLocalVarIndex.get(var.name);
+      if (index != null) {
+        methodStack.peek().visitVarInsn(ILOAD, index);
+        box(Type.INT_TYPE);
+        return;
+      }
+
+      index = context.argumentIndex.get(var.name);
       if (index == null)
         index = context.localVarIndex(var.name);
 
@@ -732,7 +2211,10 @@ import java.util.concurrent.atomic.AtomicInteger;
               "(Ljava/lang/String;Ljava/lang/String;)V");
 
         }
-      } else
+      } else if (context.stringSlices.containsKey(index)
+          && !context.argumentIndex.containsKey(var.name))
+        emitStringSlice(index, context.stringSlices.get(index));
+      else
         methodStack.peek().visitVarInsn(ALOAD, index);
     }
   };
@@ -918,10 +2400,27 @@ import java.util.concurrent.atomic.AtomicInteger;
   private final Emitter regexLiteralEmitter = new Emitter() {
     @Override
     public void emitCode(Node node) {
-      throw new UnsupportedOperationException();
+      methodStack.peek().visitFieldInsn(GETSTATIC, scope.getModuleName(),
+          regexField(((RegexLiteral) node).value), "Lloop/runtime/regex/NamedPattern;");
     }
   };
 
+  /**
+   * The static field holding the given regex, compiled once when the module is loaded.
+   */
+  private String regexField(String regex) {
+    for (Map.Entry<String, String> regexField : regexFields.entrySet()) {
+      if (regexField.getValue().equals(regex))
+        return regexField.getKey();
+    }
+
+    String field = "$regex$" + regexFields.size();
+    classWriter.visitField(ACC_PRIVATE + ACC_STATIC + ACC_FINAL, field,
+        "Lloop/runtime/regex/NamedPattern;", null, null).visitEnd();
+    regexFields.put(field, regex);
+    return field;
+  }
+
   private final Emitter functionDeclEmitter = new Emitter() {
     @Override
     public void emitCode(Node node) {
@@ -1001,17 +2500,73 @@ import java.util.concurrent.atomic.AtomicInteger;
       functionStack.push(innerContext);
       scope.pushScope(innerContext);
 
+      int access = (functionDecl.isPrivate ? 0 /* default */ : ACC_PUBLIC) + ACC_STATIC;
+      String methodName = normalizeMethodName(name);
+      String descriptor = args.append("Ljava/lang/Object;").toString();
+
+      // A function that passes its own list tail back to itself walks down the list it was
+      // first called with by offset, behind a bridge that starts at offset 0.
+      int listOffsetColumn = isClosure ? -1 : listOffsetColumn(functionDecl);
+      if (listOffsetColumn >= 0) {
+        emitListOffsetBridge(access, methodName, descriptor, children.size());
+        access = ACC_PRIVATE + ACC_STATIC;
+        methodName += LIST_OFFSET_SUFFIX;
+        descriptor = listOffsetDescriptor(children.size());
+
+        innerContext.listOffsetColumn = listOffsetColumn;
+        innerContext.listOffsetIndex = innerContext.newLocalVariable("$offset");
+      }
+
+      // Functions that tail call one another in a cycle take turns on a trampoline instead.
+      List<FunctionDecl> trampolineGroup = isClosure ? null : trampolineGroups.get(functionDecl);
+      if (trampolineGroup != null) {
+        emitTrampoline(access, methodName, descriptor, trampolineGroup, children.size());
+        access = ACC_PRIVATE + ACC_STATIC;
+        methodName += TRAMPOLINE_SUFFIX;
+        descriptor = trampolineDescriptor(children.size());
+
+        innerContext.tailCallIndex = innerContext.newLocalVariable("$tailCall");
+      }
+
       final MethodVisitor methodVisitor = classWriter.visitMethod(
-          (functionDecl.isPrivate ? 0 /* default */ : ACC_PUBLIC) + ACC_STATIC,
-          normalizeMethodName(name),
-          args.append("Ljava/lang/Object;").toString(),
+          access,
+          methodName,
+          descriptor,
           null,
           null);
       methodStack.push(methodVisitor);
       trackLineAndColumn(functionDecl);
 
+      if (types.isIntFunction(functionDecl))
+        emitIntBridge(functionDecl);
+
       methodVisitor.visitLabel(innerContext.startOfFunction);
 
+      //******* BEGIN LIST OFFSET VIEW ********
+      if (listOffsetColumn >= 0) {
+        // Anything besides the patterns sees the argument as the list from the offset on,
+        // though that is only worth a view if anything reads it.
+        String argument = innerContext.arguments.get(listOffsetColumn);
+        innerContext.argumentIndex.remove(argument);
+        int viewIndex = innerContext.newLocalVariable(argument);
+
+        boolean isRead = !functionDecl.whereBlock().isEmpty();
+        for (Node rule : functionDecl.children())
+          isRead |= isRead(rule, functionDecl, -1, argument);
+
+        if (isRead) {
+          Label atStart = new Label();
+          methodVisitor.visitVarInsn(ALOAD, listOffsetColumn);
+          methodVisitor.visitVarInsn(ILOAD, innerContext.listOffsetIndex);
+          methodVisitor.visitJumpInsn(IFEQ, atStart);
+          methodVisitor.visitVarInsn(ILOAD, innerContext.listOffsetIndex);
+          methodVisitor.visitMethodInsn(INVOKESTATIC, "loop/runtime/TailList", "of",
+              "(Ljava/lang/Object;I)Ljava/util/List;");
+          methodVisitor.visitLabel(atStart);
+          methodVisitor.visitVarInsn(ASTORE, viewIndex);
+        }
+      }
+
       //******* BEGIN CELL TRANSACTION ********
       if (functionDecl.cell != null) {
         int thisIndex = innerContext.newLocalVariable("this");
@@ -1082,6 +2637,10 @@ import java.util.concurrent.atomic.AtomicInteger;
             methodVisitor.visitVarInsn(ALOAD, i);
             methodVisitor.visitTypeInsn(CHECKCAST, "java/util/List");
             methodVisitor.visitMethodInsn(INVOKEINTERFACE, "java/util/List", "size", "()I");
+            if (i == innerContext.listOffsetColumn) {
+              methodVisitor.visitVarInsn(ILOAD, innerContext.listOffsetIndex);
+              methodVisitor.visitInsn(ISUB);
+            }
             methodVisitor.visitIntInsn(ISTORE, runtimeListSize);
             methodVisitor.visitLabel(notAList);
           }
@@ -1151,7 +2710,10 @@ import java.util.concurrent.atomic.AtomicInteger;
       //******* BEGIN INSTRUCTIONS ********
 
 
-      emitChildren(node);
+      if (functionDecl.patternMatching)
+        emitPatternRules(functionDecl);
+      else
+        emitChildren(node);
 
       if (functionDecl.patternMatching) {
         methodVisitor.visitLdcInsn("Non-exhaustive pattern rules in " + functionDecl.name());
@@ -1248,6 +2810,16 @@ import java.util.concurrent.atomic.AtomicInteger;
     @Override
     public void emitCode(Node node) {
       InlineListDef inlineListDef = (InlineListDef) node;
+      if (hoistConstants && Reducer.isConstantCollection(inlineListDef)) {
+        // Copy the constant, since whoever gets the list may well change it.
+        MethodVisitor methodVisitor = methodStack.peek();
+        methodVisitor.visitTypeInsn(NEW, "java/util/ArrayList");
+        methodVisitor.visitInsn(DUP);
+        emitConstant(inlineListDef);
+        methodVisitor.visitMethodInsn(INVOKESPECIAL, "java/util/ArrayList", "<init>",
+            "(Ljava/util/Collection;)V");
+        return;
+      }
 
       MethodVisitor methodVisitor = methodStack.peek();
       Context context = functionStack.peek();
@@ -1273,6 +2845,50 @@ import java.util.concurrent.atomic.AtomicInteger;
     }
   };
 
+  /**
+   * Pushes the static field holding the given constant list or map, which is built once
+   * when the module is loaded. It is immutable, so only places that are sure to just read
+   * it (like comprehensions) use it as is. Everywhere else gets a copy, which still skips
+   * boxing and adding each element one at a time.
+   */
+  private void emitConstant(Node collection) {
+    String type = collection instanceof InlineListDef
+        ? "Lloop/lang/ImmutableList;"
+        : "Lloop/lang/ImmutableLoopObject;";
+    methodStack.peek().visitFieldInsn(GETSTATIC, scope.getModuleName(),
+        constantField(collection, type), type);
+  }
+
+  /**
+   * The static field holding the given literal, which may be emitted more than once (such
+   * as when its function is also inlined elsewhere).
+   */
+  private String constantField(Node collection, String type) {
+    for (Map.Entry<String, Node> constantField : constantFields.entrySet()) {
+      if (constantField.getValue() == collection)
+        return constantField.getKey();
+    }
+
+    String field = "$constant$" + constantFields.size();
+    classWriter.visitField(ACC_PRIVATE + ACC_STATIC + ACC_FINAL, field, type, null, null)
+        .visitEnd();
+    constantFields.put(field, collection);
+    return field;
+  }
+
+  private void emitReadOnly(Node node) {
+    if (node instanceof ListRange) {
+      ListRange range = (ListRange) node;
+      emit(range.from);
+      emit(range.to);
+      methodStack.peek().visitMethodInsn(INVOKESTATIC, "loop/runtime/Caller", "readOnlyRange",
+          "(Ljava/lang/Object;Ljava/lang/Object;)Lloop/runtime/IntRange;");
+    } else if (hoistConstants && Reducer.isConstantCollection(node))
+      emitConstant(node);
+    else
+      emit(node);
+  }
+
   private final Emitter inlineListRangeEmitter = new Emitter() {
     @Override
     public void emitCode(Node node) {
@@ -1291,6 +2907,15 @@ import java.util.concurrent.atomic.AtomicInteger;
     @Override
     public void emitCode(Node node) {
       InlineMapDef inlineMapDef = (InlineMapDef) node;
+      if (hoistConstants && Reducer.isConstantCollection(inlineMapDef)) {
+        MethodVisitor methodVisitor = methodStack.peek();
+        methodVisitor.visitTypeInsn(NEW, "java/util/HashMap");
+        methodVisitor.visitInsn(DUP);
+        emitConstant(inlineMapDef);
+        methodVisitor.visitMethodInsn(INVOKESPECIAL, "java/util/HashMap", "<init>",
+            "(Ljava/util/Map;)V");
+        return;
+      }
 
       MethodVisitor methodVisitor = methodStack.peek();
       Context context = functionStack.peek();
@@ -1333,7 +2958,17 @@ import java.util.concurrent.atomic.AtomicInteger;
             && child instanceof Variable
             && childrenSize > 1)
           trackLineAndColumn(child);
-        emit(child);
+
+        // Picking one element out of a range literal doesn't need the whole list. Slices
+        // do, as they are views that may be changed.
+        if (i == 0
+            && childrenSize > 1
+            && child instanceof ListRange
+            && children.get(1) instanceof IndexIntoList
+            && !((IndexIntoList) children.get(1)).isSlice())
+          emitReadOnly(child);
+        else
+          emit(child);
       }
     }
   };
@@ -1377,171 +3012,888 @@ import java.util.concurrent.atomic.AtomicInteger;
       Context context = functionStack.peek();
       MethodVisitor methodVisitor = methodStack.peek();
 
-      // First create our output list.
-      int outVarIndex = context.localVarIndex(context.newLocalVariable());
+      // Already built alongside its siblings in a shared traversal.
+      Integer shared = sharedComprehensions.remove(comprehension);
+      if (shared != null) {
+        methodVisitor.visitVarInsn(ALOAD, shared);
+        return;
+      }
+
+      if (comprehension.isParallel()) {
+        emitParallelComprehension(comprehension);
+        return;
+      }
+
+      // A comprehension over a comprehension is fused into one pass, with no intermediate
+      // list: each stage's projection becomes the next stage's variable. Innermost first.
+      List<Comprehension> stages = new ArrayList<Comprehension>();
+      boolean filtered = false;
+      for (Comprehension stage = comprehension; stage != null;
+           stage = asComprehension(stage.inList())) {
+        stages.add(0, stage);
+        filtered |= stage.filter() != null;
+      }
+
+      Traversal traversal = new Traversal(stages.get(0).inList());
 
+      // Without a filter, the output is exactly as long as the source.
+      int outVarIndex = context.localVarIndex(context.newLocalVariable());
       methodVisitor.visitTypeInsn(NEW, "java/util/ArrayList");
       methodVisitor.visitInsn(DUP);
-      methodVisitor.visitMethodInsn(INVOKESPECIAL, "java/util/ArrayList", "<init>", "()V");
+      if (filtered)
+        methodVisitor.visitMethodInsn(INVOKESPECIAL, "java/util/ArrayList", "<init>", "()V");
+      else {
+        traversal.emitSize();
+        methodVisitor.visitMethodInsn(INVOKESPECIAL, "java/util/ArrayList", "<init>", "(I)V");
+      }
       methodVisitor.visitVarInsn(ASTORE, outVarIndex);
 
+      traversal.begin();
+      List<Binding> bindings = new ArrayList<Binding>();
+      bindings.add(traversal.bind(stages.get(0).var()));
+      for (int i = 0; i < stages.size(); i++) {
+        Comprehension stage = stages.get(i);
+        if (stage.filter() != null)
+          emitBranch(stage.filter(), false, traversal.next);
+
+        if (stage == comprehension)
+          methodVisitor.visitVarInsn(ALOAD, outVarIndex);
+        emitProjection(stage, bindings.get(i));
+
+        if (stage != comprehension) {
+          int index = context.localVarIndex(context.newLocalVariable());
+          methodVisitor.visitVarInsn(ASTORE, index);
+          bindings.add(bind(stages.get(i + 1).var(), index));
+        }
+      }
+      methodVisitor.visitMethodInsn(INVOKEINTERFACE, "java/util/List", "add",
+          "(Ljava/lang/Object;)Z");
+      methodVisitor.visitInsn(POP);   // Discard result of add()
+
+      for (int i = bindings.size() - 1; i >= 0; i--)
+        bindings.get(i).release();
+      traversal.end();
+
+      // Finally.
+      methodVisitor.visitVarInsn(ALOAD, outVarIndex);
+    }
+  };
+
+  /**
+   * Dumps a comprehension's current value on the stack, transformed by its projection
+   * expression if any.
+   */
+  private void emitProjection(Comprehension comprehension, Binding binding) {
+    if (!comprehension.projection().isEmpty())
+      emit(comprehension.projectionExpression());
+    else if (binding.isInt) {
+      methodStack.peek().visitVarInsn(ILOAD, binding.index);
+      box(Type.INT_TYPE);
+    } else
+      methodStack.peek().visitVarInsn(ALOAD, binding.index);
+  }
+
+  private static Comprehension asComprehension(Node node) {
+    if (node instanceof Computation && node.children().size() == 1)
+      node = node.children().get(0);
+    return node instanceof Comprehension && !((Comprehension) node).isParallel()
+        ? (Comprehension) node
+        : null;
+  }
+
+  /**
+   * The filter and projection of a parallel comprehension are compiled into a static step
+   * method of (element, free variables), which the runtime forks over slices of the source.
+   */
+  private void emitParallelComprehension(Comprehension comprehension) {
+    Context context = functionStack.peek();
+    MethodVisitor methodVisitor = methodStack.peek();
+    String name = "$par_" + functionNameSequence.incrementAndGet();
+    String var = comprehension.var().name;
+
+    // Only variables bound here need passing in, anything else is a function reference.
+    List<Variable> found = new ArrayList<Variable>();
+    detectFreeVariables(comprehension.projectionExpression(), null, found);
+    if (comprehension.filter() != null)
+      detectFreeVariables(comprehension.filter(), null, found);
+    Set<String> freeVariables = new LinkedHashSet<String>();
+    for (Variable variable : found) {
+      if (!variable.name.equals(var)
+          && (context.intLocalVarIndex.containsKey(variable.name)
+          || context.argumentIndex.containsKey(variable.name)
+          || context.localVarIndex.containsKey(variable.name)))
+        freeVariables.add(variable.name);
+    }
+
+    emitReadOnly(comprehension.inList());
+    methodVisitor.visitLdcInsn(new Handle(H_INVOKESTATIC, scope.getModuleName(), name,
+        "(Ljava/lang/Object;[Ljava/lang/Object;)Ljava/lang/Object;"));
+    methodVisitor.visitIntInsn(BIPUSH, freeVariables.size());
+    methodVisitor.visitTypeInsn(ANEWARRAY, "java/lang/Object");
+    int i = 0;
+    for (String freeVariable : freeVariables) {
+      methodVisitor.visitInsn(DUP);
+      methodVisitor.visitIntInsn(BIPUSH, i++);
+      emit(new Variable(freeVariable));
+      methodVisitor.visitInsn(AASTORE);
+    }
+    methodVisitor.visitMethodInsn(INVOKESTATIC, "loop/runtime/Comprehensions", "parallel",
+        "(Ljava/lang/Object;Ljava/lang/invoke/MethodHandle;[Ljava/lang/Object;)Ljava/util/List;");
+
+    //******* STEP METHOD ********
+    Context stepContext = new Context(context.thisFunction);
+    stepContext.arguments.add(var);
+    stepContext.argumentIndex.put(var, 0);
+    stepContext.arguments.add(name);
+    stepContext.argumentIndex.put(name, 1);
+    functionStack.push(stepContext);
+    scope.pushScope(stepContext);
+
+    MethodVisitor stepVisitor = classWriter.visitMethod(ACC_PRIVATE + ACC_STATIC + ACC_SYNTHETIC,
+        name, "(Ljava/lang/Object;[Ljava/lang/Object;)Ljava/lang/Object;", null, null);
+    methodStack.push(stepVisitor);
+
+    // Unpack the free variables into locals of the same name.
+    i = 0;
+    for (String freeVariable : freeVariables) {
+      stepVisitor.visitVarInsn(ALOAD, 1);
+      stepVisitor.visitIntInsn(BIPUSH, i++);
+      stepVisitor.visitInsn(AALOAD);
+      stepVisitor.visitVarInsn(ASTORE, stepContext.newLocalVariable(freeVariable));
+    }
+
+    Label skip = new Label();
+    if (comprehension.filter() != null)
+      emitBranch(comprehension.filter(), false, skip);
+    if (!comprehension.projection().isEmpty())
+      emit(comprehension.projectionExpression());
+    else
+      stepVisitor.visitVarInsn(ALOAD, 0);
+    stepVisitor.visitInsn(ARETURN);
+
+    stepVisitor.visitLabel(skip);
+    stepVisitor.visitFieldInsn(GETSTATIC, "loop/runtime/Comprehensions", "SKIP",
+        "Ljava/lang/Object;");
+    stepVisitor.visitInsn(ARETURN);
+    stepVisitor.visitMaxs(0, 0);
+    stepVisitor.visitEnd();
+
+    methodStack.pop();
+    scope.popScope();
+    functionStack.pop();
+  }
+
+  /**
+   * Comprehensions in a computation that filter the same list variable, such as the two
+   * halves of a quicksort partition, are all built in a single traversal of that list up
+   * front. This is only done when their filters and projections are simple expressions
+   * that can't fail on values of the right type, and when nothing that runs before the
+   * first of them can have side effects or fail, so evaluating them early can't be told
+   * apart from evaluating them in place.
+   */
+  private void emitSharedTraversals(Node computation) {
+    List<Comprehension> found = new ArrayList<Comprehension>();
+    collectComprehensions(computation, found);
+    if (found.size() < 2)
+      return;
+
+    Map<String, List<Comprehension>> bySource = new LinkedHashMap<String, List<Comprehension>>();
+    for (Comprehension comprehension : found) {
+      if (comprehension.isParallel()
+          || !(comprehension.inList() instanceof Variable)
+          || !isSimple(comprehension.filter())
+          || !isSimple(comprehension.projectionExpression()))
+        continue;
+
+      String source = ((Variable) comprehension.inList()).name;
+      List<Comprehension> group = bySource.get(source);
+      if (group == null)
+        bySource.put(source, group = new ArrayList<Comprehension>());
+      group.add(comprehension);
+    }
+
+    // Each group has to be reached in evaluation order before anything impure runs. Dropping
+    // a group makes its comprehensions impure in turn, so check again until none are dropped.
+    boolean dropped;
+    do {
+      Set<Comprehension> hoisted = new HashSet<Comprehension>();
+      for (List<Comprehension> group : bySource.values())
+        if (group.size() > 1)
+          hoisted.addAll(group);
+
+      Set<Comprehension> reached = new HashSet<Comprehension>();
+      reachPurely(computation, hoisted, reached);
+
+      dropped = false;
+      for (List<Comprehension> group : bySource.values())
+        if (group.size() > 1 && !reached.contains(firstEvaluated(computation, group))) {
+          group.clear();
+          dropped = true;
+        }
+    } while (dropped);
+
+    Context context = functionStack.peek();
+    MethodVisitor methodVisitor = methodStack.peek();
+    for (List<Comprehension> group : bySource.values()) {
+      if (group.size() < 2)
+        continue;
+
+      Traversal traversal = new Traversal(group.get(0).inList());
+      int[] outVarIndices = new int[group.size()];
+      for (int i = 0; i < group.size(); i++) {
+        outVarIndices[i] = context.localVarIndex(context.newLocalVariable());
+        methodVisitor.visitTypeInsn(NEW, "java/util/ArrayList");
+        methodVisitor.visitInsn(DUP);
+        methodVisitor.visitMethodInsn(INVOKESPECIAL, "java/util/ArrayList", "<init>", "()V");
+        methodVisitor.visitVarInsn(ASTORE, outVarIndices[i]);
+      }
+
+      traversal.begin();
+      for (int i = 0; i < group.size(); i++) {
+        Comprehension comprehension = group.get(i);
+        Binding binding = traversal.bind(comprehension.var());
+        Label skip = i == group.size() - 1 ? traversal.next : new Label();
+        if (comprehension.filter() != null)
+          emitBranch(comprehension.filter(), false, skip);
+
+        methodVisitor.visitVarInsn(ALOAD, outVarIndices[i]);
+        emitProjection(comprehension, binding);
+        methodVisitor.visitMethodInsn(INVOKEINTERFACE, "java/util/List", "add",
+            "(Ljava/lang/Object;)Z");
+        methodVisitor.visitInsn(POP);
+
+        if (skip != traversal.next)
+          methodVisitor.visitLabel(skip);
+        binding.release();
+      }
+      traversal.end();
+
+      for (int i = 0; i < group.size(); i++)
+        sharedComprehensions.put(group.get(i), outVarIndices[i]);
+    }
+  }
+
+  /**
+   * Finds comprehensions that are always evaluated as part of a computation, i.e. not
+   * behind a condition or inside a nested function. The right side of and/or is a
+   * condition too, as it only runs if the left doesn't decide the result.
+   */
+  private static void collectComprehensions(Node node, List<Comprehension> found) {
+    if (node instanceof BinaryOp && isShortCircuit((BinaryOp) node))
+      return;
+    if (node instanceof Comprehension)
+      found.add((Comprehension) node);
+    else if (node instanceof Call) {
+      if (((Call) node).args() != null)
+        collectComprehensions(((Call) node).args(), found);
+    } else if (node instanceof Computation
+        || node instanceof CallChain
+        || node instanceof CallArguments
+        || node instanceof BinaryOp
+        || node instanceof InlineListDef)
+      for (Node child : node.children())
+        collectComprehensions(child, found);
+  }
+
+  /**
+   * Walks the computation in the order it is evaluated, collecting the hoisted comprehensions
+   * reached before the first step that could have a side effect or fail. Only reading locals
+   * and literals is pure; calls and operators are not, though a call's arguments are still
+   * evaluated before it. Returns false once such a step is reached.
+   */
+  private static boolean reachPurely(Node node, Set<Comprehension> hoisted,
+                                     Set<Comprehension> reached) {
+    if (node instanceof Comprehension) {
+      if (!hoisted.contains(node))
+        return false;
+      reached.add((Comprehension) node);
+      return true;
+    }
+    if (node instanceof Variable
+        || node instanceof IntLiteral
+        || node instanceof LongLiteral
+        || node instanceof DoubleLiteral
+        || node instanceof StringLiteral
+        || node instanceof BooleanLiteral)
+      return true;
+
+    if (node instanceof Call) {
+      if (((Call) node).args() != null)
+        reachPurely(((Call) node).args(), hoisted, reached);
+      return false;
+    }
+    if (node instanceof BinaryOp) {
+      reachPurely(node.onlyChild(), hoisted, reached);
+      return false;
+    }
+    if (!(node instanceof Computation
+        || node instanceof CallChain
+        || node instanceof CallArguments
+        || node instanceof InlineListDef))
+      return false;
+
+    for (Node child : node.children())
+      if (!reachPurely(child, hoisted, reached))
+        return false;
+    return true;
+  }
+
+  private static Comprehension firstEvaluated(Node computation, List<Comprehension> group) {
+    List<Comprehension> found = new ArrayList<Comprehension>();
+    collectComprehensions(computation, found);
+    for (Comprehension comprehension : found)
+      if (group.contains(comprehension))
+        return comprehension;
+    return null;
+  }
+
+  private static boolean isShortCircuit(BinaryOp binaryOp) {
+    return binaryOp.operator.kind == Token.Kind.AND || binaryOp.operator.kind == Token.Kind.OR;
+  }
+
+  private static boolean isSimple(Node node) {
+    if (node == null
+        || node instanceof Variable
+        || node instanceof IntLiteral
+        || node instanceof LongLiteral
+        || node instanceof DoubleLiteral
+        || node instanceof StringLiteral
+        || node instanceof BooleanLiteral)
+      return true;
+    if (!(node instanceof Computation || node instanceof BinaryOp))
+      return false;
+
+    // Division fails on zero.
+    if (node instanceof BinaryOp) {
+      Token.Kind kind = ((BinaryOp) node).operator.kind;
+      if (kind == Token.Kind.DIVIDE || kind == Token.Kind.MODULUS)
+        return false;
+    }
+
+    for (Node child : node.children())
+      if (!isSimple(child))
+        return false;
+    return true;
+  }
+
+  /**
+   * A name bound to a local for the duration of a loop body.
+   */
+  private class Binding {
+    final String name;
+    final int index;
+    final boolean isInt;
+    private final Integer shadowedInt;
+    private final Integer shadowedLocal;
+
+    Binding(String name, int index, boolean isInt) {
+      this.name = name;
+      this.index = index;
+      this.isInt = isInt;
+
+      Context context = functionStack.peek();
+      if (isInt) {
+        this.shadowedInt = context.intLocalVarIndex.put(name, index);
+        this.shadowedLocal = null;
+      } else {
+        // An object local is hidden by any int local of the same name, so unmap it.
+        this.shadowedInt = context.intLocalVarIndex.remove(name);
+        this.shadowedLocal = context.localVarIndex.put(name, index);
+      }
+    }
+
+    void release() {
+      Context context = functionStack.peek();
+      if (shadowedInt == null)
+        context.intLocalVarIndex.remove(name);
+      else
+        context.intLocalVarIndex.put(name, shadowedInt);
+
+      if (!isInt) {
+        if (shadowedLocal == null)
+          context.localVarIndex.remove(name);
+        else
+          context.localVarIndex.put(name, shadowedLocal);
+      }
+    }
+  }
+
+  private Binding bind(Variable var, int index) {
+    return new Binding(var.name, index, false);
+  }
 
-      // Now loop through the target variable.
-      int iVarIndex = context.localVarIndex(context.newLocalVariable());
+  /**
+   * A single pass over the source list of a comprehension. Ranges are counted through
+   * without boxing, random access lists are walked by index, and anything else goes
+   * through an iterator. Loop bodies go between {@link #begin()} and {@link #end()}, and
+   * jump to {@link #next} to skip the rest of an element.
+   */
+  private class Traversal {
+    final Label next = new Label();
+    private final Label start = new Label();
+    private final Label end = new Label();
+
+    private final ListRange range;
+    private final int iVarIndex;
+    private final int lastVarIndex;
+    private final int stepVarIndex;
+    private final int sourceVarIndex;
+    private final int iteratorVarIndex;
+    private final int elementVarIndex;
+
+    Traversal(Node source) {
+      Context context = functionStack.peek();
+      MethodVisitor methodVisitor = methodStack.peek();
 
-      // iterator = collection.iterator()
-      emit(comprehension.inList());
+      range = source instanceof ListRange ? (ListRange) source : null;
+      iVarIndex = context.localVarIndex(context.newLocalVariable());
+      lastVarIndex = context.localVarIndex(context.newLocalVariable());
+
+      if (range != null) {
+        stepVarIndex = context.localVarIndex(context.newLocalVariable());
+        sourceVarIndex = iteratorVarIndex = elementVarIndex = -1;
+
+        // i = from, last = to, step = from <= to ? 1 : -1
+        emitRangeBound(range.from);
+        methodVisitor.visitVarInsn(ISTORE, iVarIndex);
+        emitRangeBound(range.to);
+        methodVisitor.visitVarInsn(ISTORE, lastVarIndex);
+
+        Label descending = new Label();
+        Label stepped = new Label();
+        methodVisitor.visitVarInsn(ILOAD, iVarIndex);
+        methodVisitor.visitVarInsn(ILOAD, lastVarIndex);
+        methodVisitor.visitJumpInsn(IF_ICMPGT, descending);
+        methodVisitor.visitInsn(ICONST_1);
+        methodVisitor.visitJumpInsn(GOTO, stepped);
+        methodVisitor.visitLabel(descending);
+        methodVisitor.visitInsn(ICONST_M1);
+        methodVisitor.visitLabel(stepped);
+        methodVisitor.visitVarInsn(ISTORE, stepVarIndex);
+        return;
+      }
+
+      stepVarIndex = -1;
+      sourceVarIndex = context.localVarIndex(context.newLocalVariable());
+      iteratorVarIndex = context.localVarIndex(context.newLocalVariable());
+      elementVarIndex = context.localVarIndex(context.newLocalVariable());
+      emitReadOnly(source);
       methodVisitor.visitTypeInsn(CHECKCAST, "java/util/Collection");
+      methodVisitor.visitVarInsn(ASTORE, sourceVarIndex);
+
+      // Random access lists are indexed from i = 0 up to last = size, everything else
+      // is iterated with i = -1.
+      Label iterated = new Label();
+      Label ready = new Label();
+      methodVisitor.visitVarInsn(ALOAD, sourceVarIndex);
+      methodVisitor.visitTypeInsn(INSTANCEOF, "java/util/RandomAccess");
+      methodVisitor.visitJumpInsn(IFEQ, iterated);
+      methodVisitor.visitVarInsn(ALOAD, sourceVarIndex);
+      methodVisitor.visitTypeInsn(INSTANCEOF, "java/util/List");
+      methodVisitor.visitJumpInsn(IFEQ, iterated);
+
+      methodVisitor.visitInsn(ICONST_0);
+      methodVisitor.visitVarInsn(ISTORE, iVarIndex);
+      methodVisitor.visitVarInsn(ALOAD, sourceVarIndex);
+      methodVisitor.visitMethodInsn(INVOKEINTERFACE, "java/util/Collection", "size", "()I");
+      methodVisitor.visitVarInsn(ISTORE, lastVarIndex);
+      methodVisitor.visitInsn(ACONST_NULL);
+      methodVisitor.visitVarInsn(ASTORE, iteratorVarIndex);
+      methodVisitor.visitJumpInsn(GOTO, ready);
+
+      methodVisitor.visitLabel(iterated);
+      methodVisitor.visitInsn(ICONST_M1);
+      methodVisitor.visitVarInsn(ISTORE, iVarIndex);
+      methodVisitor.visitInsn(ICONST_0);
+      methodVisitor.visitVarInsn(ISTORE, lastVarIndex);
+      methodVisitor.visitVarInsn(ALOAD, sourceVarIndex);
       methodVisitor.visitMethodInsn(INVOKEINTERFACE, "java/util/Collection", "iterator",
           "()Ljava/util/Iterator;");
-      methodVisitor.visitVarInsn(ASTORE, iVarIndex);
+      methodVisitor.visitVarInsn(ASTORE, iteratorVarIndex);
+      methodVisitor.visitLabel(ready);
+    }
 
-      Label start = new Label();
-      Label end = new Label();
-      // {
-      // if !iterator.hasNext() jump to end
+    /**
+     * Pushes the number of elements in the source, as an int.
+     */
+    void emitSize() {
+      MethodVisitor methodVisitor = methodStack.peek();
+      if (range == null) {
+        methodVisitor.visitVarInsn(ALOAD, sourceVarIndex);
+        methodVisitor.visitMethodInsn(INVOKEINTERFACE, "java/util/Collection", "size", "()I");
+        return;
+      }
+
+      // |last - i| + 1, in long so that it can't wrap.
+      methodVisitor.visitVarInsn(ILOAD, lastVarIndex);
+      methodVisitor.visitInsn(I2L);
+      methodVisitor.visitVarInsn(ILOAD, iVarIndex);
+      methodVisitor.visitInsn(I2L);
+      methodVisitor.visitInsn(LSUB);
+      methodVisitor.visitMethodInsn(INVOKESTATIC, "java/lang/Math", "abs", "(J)J");
+      methodVisitor.visitInsn(LCONST_1);
+      methodVisitor.visitInsn(LADD);
+      methodVisitor.visitInsn(L2I);
+    }
+
+    void begin() {
+      MethodVisitor methodVisitor = methodStack.peek();
+
+      // A range always contains at least its first element, so the body comes first.
       methodVisitor.visitLabel(start);
-      methodVisitor.visitVarInsn(ALOAD, iVarIndex);
+      if (range != null)
+        return;
+
+      // if i < 0, iterate
+      Label iterate = new Label();
+      Label bound = new Label();
+      methodVisitor.visitVarInsn(ILOAD, iVarIndex);
+      methodVisitor.visitJumpInsn(IFLT, iterate);
+
+      // if i >= last jump to end, else element = source.get(i++)
+      methodVisitor.visitVarInsn(ILOAD, iVarIndex);
+      methodVisitor.visitVarInsn(ILOAD, lastVarIndex);
+      methodVisitor.visitJumpInsn(IF_ICMPGE, end);
+      methodVisitor.visitVarInsn(ALOAD, sourceVarIndex);
+      methodVisitor.visitTypeInsn(CHECKCAST, "java/util/List");
+      methodVisitor.visitVarInsn(ILOAD, iVarIndex);
+      methodVisitor.visitMethodInsn(INVOKEINTERFACE, "java/util/List", "get",
+          "(I)Ljava/lang/Object;");
+      methodVisitor.visitIincInsn(iVarIndex, 1);
+      methodVisitor.visitJumpInsn(GOTO, bound);
+
+      // if !iterator.hasNext() jump to end, else element = iterator.next()
+      methodVisitor.visitLabel(iterate);
+      methodVisitor.visitVarInsn(ALOAD, iteratorVarIndex);
       methodVisitor.visitMethodInsn(INVOKEINTERFACE, "java/util/Iterator", "hasNext", "()Z");
       methodVisitor.visitJumpInsn(IFEQ, end);
-
-      // var = iterator.next()
-      methodVisitor.visitVarInsn(ALOAD, iVarIndex);
+      methodVisitor.visitVarInsn(ALOAD, iteratorVarIndex);
       methodVisitor.visitMethodInsn(INVOKEINTERFACE, "java/util/Iterator", "next",
           "()Ljava/lang/Object;");
-      int nextIndex = context.localVarIndex(context.newLocalVariable(comprehension.var()));
-      methodVisitor.visitVarInsn(ASTORE, nextIndex);
-
-      // if (filter_expression)
-      if (comprehension.filter() != null) {
-        emit(comprehension.filter());
-        // Convert to primitive type.
-        methodVisitor.visitMethodInsn(INVOKEVIRTUAL, "java/lang/Boolean", "booleanValue",
-            "()Z");
-        methodVisitor.visitJumpInsn(IFEQ, start);
-      }
 
-      // Dump this value into the out list.
-      methodVisitor.visitVarInsn(ALOAD, outVarIndex);
-      methodVisitor.visitVarInsn(ALOAD, nextIndex);
-
-      // Transform the value first using the projection expression.
-      if (comprehension.projection() != null) {
-        methodVisitor.visitInsn(POP);
-        for (Node projection : comprehension.projection()) {
-          emit(projection);
-        }
-      }
+      methodVisitor.visitLabel(bound);
+      methodVisitor.visitVarInsn(ASTORE, elementVarIndex);
+    }
 
-      methodVisitor.visitMethodInsn(INVOKEINTERFACE, "java/util/List", "add",
-          "(Ljava/lang/Object;)Z");
+    /**
+     * Binds the current element to the given variable, for use in the loop body.
+     */
+    Binding bind(Variable var) {
+      if (range != null)
+        return new Binding(var.name, iVarIndex, true);
+      return AsmCodeEmitter.this.bind(var, elementVarIndex);
+    }
 
-      methodVisitor.visitInsn(POP);   // Discard result of add()
+    void end() {
+      MethodVisitor methodVisitor = methodStack.peek();
+      methodVisitor.visitLabel(next);
+      if (range != null) {
+        // Stop at the last element rather than past it, so that ranges ending at
+        // Integer.MAX_VALUE don't wrap around.
+        methodVisitor.visitVarInsn(ILOAD, iVarIndex);
+        methodVisitor.visitVarInsn(ILOAD, lastVarIndex);
+        methodVisitor.visitJumpInsn(IF_ICMPEQ, end);
+        methodVisitor.visitVarInsn(ILOAD, iVarIndex);
+        methodVisitor.visitVarInsn(ILOAD, stepVarIndex);
+        methodVisitor.visitInsn(IADD);
+        methodVisitor.visitVarInsn(ISTORE, iVarIndex);
+      }
       methodVisitor.visitJumpInsn(GOTO, start);
-      // }
       methodVisitor.visitLabel(end);
+    }
+  }
 
-      // Finally.
-      methodVisitor.visitVarInsn(ALOAD, outVarIndex);
+  /**
+   * Emits the bound of a range as an unboxed int.
+   */
+  private void emitRangeBound(Node bound) {
+    MethodVisitor methodVisitor = methodStack.peek();
+    if (bound instanceof IntLiteral || bound instanceof Variable
+        && types.typeOf(bound) == Type.INT_TYPE)
+      emitPrimitive(bound, Type.INT_TYPE);
+    else {
+      emit(bound);
+      methodVisitor.visitTypeInsn(CHECKCAST, "java/lang/Integer");
+      methodVisitor.visitMethodInsn(INVOKEVIRTUAL, "java/lang/Integer", "intValue", "()I");
     }
-  };
+  }
 
   private final Emitter patternRuleEmitter = new Emitter() {
     @Override
     public void emitCode(Node node) {
-      PatternRule rule = (PatternRule) node;
-      Context context = functionStack.peek();
-      MethodVisitor methodVisitor = methodStack.peek();
+      emitPatternRule((PatternRule) node, -1, null);
+    }
+  };
 
-      if (context.arguments.isEmpty())
-        throw new RuntimeException("Incorrect number of arguments for pattern matching");
+  /**
+   * Emits a single pattern rule, skipping the test for an argument already dispatched on by
+   * a switch, if any. A rule that doesn't match jumps to {@code onFailure}, or else falls
+   * through to whatever follows it.
+   */
+  private void emitPatternRule(PatternRule rule, int dispatchedColumn, Label onFailure) {
+    Context context = functionStack.peek();
+    MethodVisitor methodVisitor = methodStack.peek();
+    context.tailOffsets.clear();
+    context.stringSlices.clear();
 
-      if (context.arguments.size() != rule.patterns.size())
-        throw new RuntimeException("Incorrect number of pattern rules. Expected pattern rules for "
-            + context.arguments + " but found " + rule.patterns.size() + " rule(s): "
-            + LexprParser.stringify(rule.patterns));
+    // Whatever a rule binds is gone once it returns or fails to match.
+    int scope = context.openScope();
 
-      Label matchedClause = new Label();
-      Label endOfClause = new Label();
+    if (context.arguments.isEmpty())
+      throw new RuntimeException("Incorrect number of arguments for pattern matching");
 
-      for (int i = 0, argumentsSize = context.arguments.size(); i < argumentsSize; i++) {
-
-        Node pattern = rule.patterns.get(i);
-        if (pattern instanceof ListDestructuringPattern) {
-          emitListDestructuringPatternRule(rule, methodVisitor, context, endOfClause,
-              i);
-        } else if (pattern instanceof ListStructurePattern) {
-          emitListStructurePatternRule(rule, methodVisitor, context, matchedClause, endOfClause, i);
-        } else if (pattern instanceof StringLiteral
-            || pattern instanceof PrivateField
-            || pattern instanceof IntLiteral
-            || pattern instanceof BooleanLiteral) {
-
-          methodVisitor.visitVarInsn(ALOAD, i);
-          emit(pattern);
-
-          if (!(pattern instanceof BooleanLiteral))
-            methodVisitor.visitMethodInsn(INVOKESTATIC, "loop/runtime/Operations", "equal",
-                "(Ljava/lang/Object;Ljava/lang/Object;)Ljava/lang/Boolean;");
-          methodVisitor.visitMethodInsn(INVOKEVIRTUAL, "java/lang/Boolean", "booleanValue", "()Z");
-
-          methodVisitor.visitJumpInsn(IFEQ, endOfClause);
-        } else if (pattern instanceof TypeLiteral) {
-          emitTypePatternRule(methodVisitor, matchedClause, endOfClause, i, (TypeLiteral) pattern);
-        } else if (pattern instanceof RegexLiteral) {
-          String regex = ((RegexLiteral) pattern).value;
-          methodVisitor.visitLdcInsn(regex);
-
-          // Discover named capturing groups if any.
-          NamedPattern namedPattern = NamedPattern.compile(regex);
-          List<String> groupNames = namedPattern.groupNames();
-          for (String groupVarName : groupNames) {
-            int varIndex = context.newLocalVariable(groupVarName);
-            methodVisitor.visitInsn(ACONST_NULL);
-            methodVisitor.visitVarInsn(ASTORE, varIndex);   // initialize part to null.
-          }
+    if (context.arguments.size() != rule.patterns.size())
+      throw new RuntimeException("Incorrect number of pattern rules. Expected pattern rules for "
+          + context.arguments + " but found " + rule.patterns.size() + " rule(s): "
+          + LexprParser.stringify(rule.patterns));
+
+    Label matchedClause = new Label();
+    Label endOfClause = new Label();
+
+    for (int i = 0, argumentsSize = context.arguments.size(); i < argumentsSize; i++) {
+      if (i == dispatchedColumn)
+        continue;
+
+      Node pattern = rule.patterns.get(i);
+      if (pattern instanceof ListDestructuringPattern) {
+        emitListDestructuringPatternRule(rule, methodVisitor, context, endOfClause,
+            i);
+      } else if (pattern instanceof ListStructurePattern) {
+        emitListStructurePatternRule(rule, methodVisitor, context, matchedClause, endOfClause, i);
+      } else if (pattern instanceof StringLiteral
+          || pattern instanceof PrivateField
+          || pattern instanceof IntLiteral
+          || pattern instanceof BooleanLiteral) {
+
+        methodVisitor.visitVarInsn(ALOAD, i);
+        emit(pattern);
+
+        if (!(pattern instanceof BooleanLiteral))
+          methodVisitor.visitMethodInsn(INVOKESTATIC, "loop/runtime/Operations", "equal",
+              "(Ljava/lang/Object;Ljava/lang/Object;)Ljava/lang/Boolean;");
+        methodVisitor.visitMethodInsn(INVOKEVIRTUAL, "java/lang/Boolean", "booleanValue", "()Z");
+
+        methodVisitor.visitJumpInsn(IFEQ, endOfClause);
+      } else if (pattern instanceof TypeLiteral) {
+        emitTypePatternRule(methodVisitor, matchedClause, endOfClause, i, (TypeLiteral) pattern);
+      } else if (pattern instanceof RegexLiteral) {
+        String regex = ((RegexLiteral) pattern).value;
+
+        // Discover named capturing groups if any.
+        NamedPattern namedPattern = NamedPattern.compile(regex);
+        List<String> groupNames = namedPattern.groupNames();
+        for (String groupVarName : groupNames) {
+          int varIndex = context.newLocalVariable(groupVarName);
+          methodVisitor.visitInsn(ACONST_NULL);
+          methodVisitor.visitVarInsn(ASTORE, varIndex);   // initialize part to null.
+        }
+
+        int matcherVar = context.localVarIndex(context.newLocalVariable());
 
-          int matcherVar = context.localVarIndex(context.newLocalVariable());
+        // The groups are all read out right away, so the matcher can be reused.
+        emit(pattern);
+        methodVisitor.visitVarInsn(ALOAD, i);
+        methodVisitor.visitTypeInsn(CHECKCAST, "java/lang/String");
+        methodVisitor.visitMethodInsn(INVOKEVIRTUAL, "loop/runtime/regex/NamedPattern",
+            "reusableMatcher", "(Ljava/lang/CharSequence;)Lloop/runtime/regex/NamedMatcher;");
 
-          methodVisitor.visitMethodInsn(INVOKESTATIC, "loop/runtime/regex/NamedPattern", "compile",
-              "(Ljava/lang/String;)Lloop/runtime/regex/NamedPattern;");
+        methodVisitor.visitVarInsn(ASTORE, matcherVar);
+        methodVisitor.visitVarInsn(ALOAD, matcherVar);
+        methodVisitor.visitMethodInsn(INVOKEVIRTUAL, "loop/runtime/regex/NamedMatcher", "matches",
+            "()Z");
 
-          methodVisitor.visitVarInsn(ALOAD, i);
-          methodVisitor.visitTypeInsn(CHECKCAST, "java/lang/String");
-          methodVisitor.visitMethodInsn(INVOKEVIRTUAL, "loop/runtime/regex/NamedPattern", "matcher",
-              "(Ljava/lang/CharSequence;)Lloop/runtime/regex/NamedMatcher;");
+        methodVisitor.visitJumpInsn(IFEQ, endOfClause);
 
-          methodVisitor.visitVarInsn(ASTORE, matcherVar);
+        // Now extract the capturing groups, by their number rather than their name.
+        for (String groupNameVar : groupNames) {
           methodVisitor.visitVarInsn(ALOAD, matcherVar);
-          methodVisitor.visitMethodInsn(INVOKEVIRTUAL, "loop/runtime/regex/NamedMatcher", "matches",
-              "()Z");
-
-          methodVisitor.visitJumpInsn(IFEQ, endOfClause);
-
-          // Now extract the capturing group names.
-          for (String groupNameVar : groupNames) {
-            methodVisitor.visitVarInsn(ALOAD, matcherVar);
-            methodVisitor.visitLdcInsn(groupNameVar);
-            methodVisitor.visitMethodInsn(INVOKEVIRTUAL, "loop/runtime/regex/NamedMatcher", "group",
-                "(Ljava/lang/String;)Ljava/lang/String;");
-            methodVisitor.visitVarInsn(ASTORE, context.localVarIndex(groupNameVar));
-          }
+          methodVisitor.visitLdcInsn(namedPattern.groupIndex(groupNameVar));
+          methodVisitor.visitMethodInsn(INVOKEVIRTUAL, "loop/runtime/regex/NamedMatcher", "group",
+              "(I)Ljava/lang/String;");
+          methodVisitor.visitVarInsn(ASTORE, context.localVarIndex(groupNameVar));
+        }
+
+      } else if (pattern instanceof StringPattern) {
+        emitStringPatternRule(rule, context, endOfClause, i);
+      } else if (pattern instanceof MapPattern) {
+        emitMapPatternRule(rule, context, matchedClause, endOfClause, i);
+      } else if (pattern instanceof WildcardPattern) {
+        // Always matches.
+      }
+    }
+
+    methodVisitor.visitLabel(matchedClause);
+    emitPatternClauses(rule);
+    methodVisitor.visitJumpInsn(GOTO, context.endOfFunction);
+    methodVisitor.visitLabel(endOfClause);
+    if (onFailure != null)
+      methodVisitor.visitJumpInsn(GOTO, onFailure);
+    context.closeScope(scope);
+  }
 
-        } else if (pattern instanceof StringPattern) {
-          emitStringPatternRule(rule, context, endOfClause, i);
-        } else if (pattern instanceof MapPattern) {
-          emitMapPatternRule(rule, context, matchedClause, endOfClause, i);
-        } else if (pattern instanceof WildcardPattern) {
-          // Always matches.
+  /**
+   * Pattern rules are tried in order, except for runs of consecutive rules that all match
+   * the same argument against an int or string literal. Those share a single switch on that
+   * argument, which jumps straight to the first rule with the matching literal, and a rule
+   * that then fails on another argument falls through only to later rules with the same
+   * literal. Large literal dispatch thus costs the same no matter which rule matches.
+   */
+  private void emitPatternRules(FunctionDecl functionDecl) {
+    List<Node> rules = functionDecl.children();
+    int i = 0;
+    while (i < rules.size()) {
+      PatternRule first = (PatternRule) rules.get(i);
+      int column = -1, end = i + 1;
+      for (int c = 0; c < first.patterns.size(); c++) {
+        int runEnd = literalRunEnd(rules, i, c);
+        if (runEnd > end) {
+          column = c;
+          end = runEnd;
         }
       }
 
-      methodVisitor.visitLabel(matchedClause);
-      emitPatternClauses(rule);
-      methodVisitor.visitJumpInsn(GOTO, context.endOfFunction);
-      methodVisitor.visitLabel(endOfClause);
+      if (end - i < MIN_SWITCHED_RULES) {
+        emit(first);
+        i++;
+      } else {
+        emitSwitchedPatternRules(rules.subList(i, end), column);
+        i = end;
+      }
     }
-  };
+  }
+
+  /**
+   * Returns the index just past the run of rules starting at {@code from}, whose patterns
+   * for the given argument are all literals of the same kind.
+   */
+  private static int literalRunEnd(List<Node> rules, int from, int column) {
+    Class<?> kind = literalKind(((PatternRule) rules.get(from)).patterns, column);
+    if (kind == null)
+      return from;
+
+    int end = from + 1;
+    while (end < rules.size()
+        && literalKind(((PatternRule) rules.get(end)).patterns, column) == kind)
+      end++;
+    return end;
+  }
+
+  private static Class<?> literalKind(List<Node> patterns, int column) {
+    if (column >= patterns.size())
+      return null;
+
+    Node pattern = patterns.get(column);
+    if (pattern instanceof IntLiteral)
+      return Integer.class;
+    if (pattern instanceof StringLiteral && ((StringLiteral) pattern).parts == null)
+      return String.class;
+    return null;
+  }
+
+  private static Object literalKey(Node pattern) {
+    if (pattern instanceof IntLiteral)
+      return ((IntLiteral) pattern).value;
+    return ((StringLiteral) pattern).unquotedValue();
+  }
+
+  private void emitSwitchedPatternRules(List<Node> rules, int column) {
+    MethodVisitor methodVisitor = methodStack.peek();
+    Label exit = new Label();
+
+    // Rules in the order they're tried for each literal.
+    Map<Object, List<Integer>> rulesByKey = new LinkedHashMap<Object, List<Integer>>();
+    Label[] entries = new Label[rules.size()];
+    for (int i = 0; i < rules.size(); i++) {
+      entries[i] = new Label();
+      Object key = literalKey(((PatternRule) rules.get(i)).patterns.get(column));
+      List<Integer> keyRules = rulesByKey.get(key);
+      if (keyRules == null)
+        rulesByKey.put(key, keyRules = new ArrayList<Integer>());
+      keyRules.add(i);
+    }
+
+    Label[] failures = new Label[rules.size()];
+    for (List<Integer> keyRules : rulesByKey.values()) {
+      for (int i = 0; i < keyRules.size(); i++)
+        failures[keyRules.get(i)] = i + 1 < keyRules.size()
+            ? entries[keyRules.get(i + 1)]
+            : exit;
+    }
+
+    // Literals only ever equal an argument of exactly their own type.
+    boolean ints = rulesByKey.keySet().iterator().next() instanceof Integer;
+    String type = ints ? "java/lang/Integer" : "java/lang/String";
+    methodVisitor.visitVarInsn(ALOAD, column);
+    methodVisitor.visitTypeInsn(INSTANCEOF, type);
+    methodVisitor.visitJumpInsn(IFEQ, exit);
+    methodVisitor.visitVarInsn(ALOAD, column);
+    methodVisitor.visitTypeInsn(CHECKCAST, type);
+
+    if (ints) {
+      TreeMap<Integer, Label> cases = new TreeMap<Integer, Label>();
+      for (Map.Entry<Object, List<Integer>> entry : rulesByKey.entrySet())
+        cases.put((Integer) entry.getKey(), entries[entry.getValue().get(0)]);
+
+      methodVisitor.visitMethodInsn(INVOKEVIRTUAL, "java/lang/Integer", "intValue", "()I");
+      emitSwitch(cases, exit);
+    } else {
+      // Switch on the hash code, then confirm with equals().
+      TreeMap<Integer, Label> buckets = new TreeMap<Integer, Label>();
+      Map<Label, List<String>> bucketKeys = new LinkedHashMap<Label, List<String>>();
+      for (Object key : rulesByKey.keySet()) {
+        Label bucket = buckets.get(key.hashCode());
+        if (bucket == null) {
+          buckets.put(key.hashCode(), bucket = new Label());
+          bucketKeys.put(bucket, new ArrayList<String>());
+        }
+        bucketKeys.get(bucket).add((String) key);
+      }
+
+      methodVisitor.visitMethodInsn(INVOKEVIRTUAL, "java/lang/String", "hashCode", "()I");
+      emitSwitch(buckets, exit);
+      for (Map.Entry<Label, List<String>> bucket : bucketKeys.entrySet()) {
+        methodVisitor.visitLabel(bucket.getKey());
+        for (String key : bucket.getValue()) {
+          methodVisitor.visitVarInsn(ALOAD, column);
+          methodVisitor.visitLdcInsn(key);
+          methodVisitor.visitMethodInsn(INVOKEVIRTUAL, "java/lang/Object", "equals",
+              "(Ljava/lang/Object;)Z");
+          methodVisitor.visitJumpInsn(IFNE, entries[rulesByKey.get(key).get(0)]);
+        }
+        methodVisitor.visitJumpInsn(GOTO, exit);
+      }
+    }
+
+    for (int i = 0; i < rules.size(); i++) {
+      methodVisitor.visitLabel(entries[i]);
+      emitPatternRule((PatternRule) rules.get(i), column, failures[i]);
+    }
+    methodVisitor.visitLabel(exit);
+  }
+
+  /**
+   * Switches on the int on top of the stack, using a jump table if the cases are dense
+   * enough and a binary search otherwise.
+   */
+  private void emitSwitch(TreeMap<Integer, Label> cases, Label defaultCase) {
+    MethodVisitor methodVisitor = methodStack.peek();
+    int min = cases.firstKey(), max = cases.lastKey();
+    if ((long) max - min < cases.size() * 2L) {
+      Label[] table = new Label[max - min + 1];
+      for (int i = 0; i < table.length; i++) {
+        Label target = cases.get(min + i);
+        table[i] = target != null ? target : defaultCase;
+      }
+      methodVisitor.visitTableSwitchInsn(min, max, defaultCase, table);
+    } else {
+      int[] keys = new int[cases.size()];
+      int i = 0;
+      for (Integer key : cases.keySet())
+        keys[i++] = key;
+      methodVisitor.visitLookupSwitchInsn(defaultCase, keys,
+          cases.values().toArray(new Label[cases.size()]));
+    }
+  }
 
   private void emitTypePatternRule(MethodVisitor methodVisitor,
                                    Label matchedClause,
@@ -1584,13 +3936,8 @@ import java.util.concurrent.atomic.AtomicInteger;
 
       // The "Otherwise" expression is a plain else.
       boolean notElse = !(guard.expression instanceof OtherwiseGuard);
-      if (notElse) {
-        emit(guard.expression);
-
-        methodVisitor.visitTypeInsn(CHECKCAST, "java/lang/Boolean");
-        methodVisitor.visitMethodInsn(INVOKEVIRTUAL, "java/lang/Boolean", "booleanValue", "()Z");
-        methodVisitor.visitJumpInsn(IFEQ, endOfClause);
-      }
+      if (notElse)
+        emitBranch(guard.expression, false, endOfClause);
 
       methodVisitor.visitLabel(matchedClause);
       emit(guard.line);
@@ -1657,6 +4004,11 @@ import java.util.concurrent.atomic.AtomicInteger;
     methodVisitor.visitVarInsn(ILOAD, context.localVarIndex(IS_STRING_PREFIX + argIndex));
     methodVisitor.visitJumpInsn(IFEQ, endOfClause);   // Not a string, so skip
 
+    int input = context.localVarIndex(context.newLocalVariable());
+    methodVisitor.visitVarInsn(ALOAD, argIndex);
+    methodVisitor.visitTypeInsn(CHECKCAST, "java/lang/String");
+    methodVisitor.visitVarInsn(ASTORE, input);
+
     List<Node> children = rule.patterns.get(argIndex).children();
     int i = 0, childrenSize = children.size();
 
@@ -1676,61 +4028,53 @@ import java.util.concurrent.atomic.AtomicInteger;
 
       if (child instanceof Variable) {
         if (j < childrenSize - 1) {
-          context.localVarIndex(context.newLocalVariable((Variable) child));
-
           Node next = children.get(j + 1);
           if (next instanceof StringLiteral) {
             // If the next node is a string literal, then we must split this
-            // string across occurrences of the given literal.
+            // string across occurrences of the given literal. Single characters are
+            // searched for as such, which is quicker than a one character string.
+            String delimiter = ((StringLiteral) next).unquotedValue();
+            String search = delimiter.length() == 1 ? "I" : "Ljava/lang/String;";
             int thisIndex = context.localVarIndex(context.newLocalVariable());
 
-            methodVisitor.visitVarInsn(ALOAD, argIndex);
-            methodVisitor.visitTypeInsn(CHECKCAST, "java/lang/String");
-            emit(next);
+            methodVisitor.visitVarInsn(ALOAD, input);
+            if (delimiter.length() == 1)
+              methodVisitor.visitLdcInsn((int) delimiter.charAt(0));
+            else
+              methodVisitor.visitLdcInsn(delimiter);
 
             // If this is the second or greater pattern matcher, seek from the last location.
             if (splittable) {
               methodVisitor.visitIntInsn(ILOAD, lastIndex);
               methodVisitor.visitMethodInsn(INVOKEVIRTUAL, "java/lang/String", "indexOf",
-                  "(Ljava/lang/String;I)I");
+                  "(" + search + "I)I");
             } else {
               methodVisitor.visitMethodInsn(INVOKEVIRTUAL, "java/lang/String", "indexOf",
-                  "(Ljava/lang/String;)I");
+                  "(" + search + ")I");
             }
             methodVisitor.visitIntInsn(ISTORE, thisIndex);
 
             methodVisitor.visitIntInsn(ILOAD, thisIndex);
-            methodVisitor.visitIntInsn(BIPUSH, -1);
-            methodVisitor.visitJumpInsn(IF_ICMPLE, endOfClause); // Jump out of this clause
-
-            int matchedPieceVar = context.localVarIndex(context.newLocalVariable((Variable) child));
-
-            methodVisitor.visitVarInsn(ALOAD, argIndex);
-            methodVisitor.visitTypeInsn(CHECKCAST, "java/lang/String");
-
-            methodVisitor.visitIntInsn(ILOAD, lastIndex);
+            methodVisitor.visitJumpInsn(IFLT, endOfClause); // Jump out of this clause
 
+            // Either start from 0 or lastindex of split.
+            int start = context.localVarIndex(context.newLocalVariable());
             Label startFromLastIndex = new Label();
             Label startFromZeroIndex = new Label();
+            methodVisitor.visitIntInsn(ILOAD, lastIndex);
             methodVisitor.visitIntInsn(BIPUSH, -1);
             methodVisitor.visitJumpInsn(IF_ICMPNE, startFromLastIndex);
-
-            // Either start from 0 or lastindex of split.
             methodVisitor.visitIntInsn(BIPUSH, 0);
             methodVisitor.visitJumpInsn(GOTO, startFromZeroIndex);
             methodVisitor.visitLabel(startFromLastIndex);
             methodVisitor.visitIntInsn(ILOAD, lastIndex);
             methodVisitor.visitLabel(startFromZeroIndex);
+            methodVisitor.visitVarInsn(ISTORE, start);
 
-            methodVisitor.visitIntInsn(ILOAD, thisIndex);
-            methodVisitor.visitMethodInsn(INVOKEVIRTUAL, "java/lang/String", "substring",
-                "(II)Ljava/lang/String;");
-
-            // Save this piece into our variable.
-            methodVisitor.visitVarInsn(ASTORE, matchedPieceVar);
+            bindStringSlice((Variable) child, input, start, thisIndex);
 
             // Advance the index by the length of this match.
-            methodVisitor.visitLdcInsn(((StringLiteral) next).unquotedValue().length());
+            methodVisitor.visitLdcInsn(delimiter.length());
             methodVisitor.visitIntInsn(ILOAD, thisIndex);
             methodVisitor.visitInsn(IADD);
 
@@ -1738,9 +4082,8 @@ import java.util.concurrent.atomic.AtomicInteger;
 
             splittable = true;
           } else {
-            methodVisitor.visitVarInsn(ALOAD, argIndex);
             int matchedPieceVar = context.localVarIndex(context.newLocalVariable((Variable) child));
-            methodVisitor.visitTypeInsn(CHECKCAST, "java/lang/String");
+            methodVisitor.visitVarInsn(ALOAD, input);
             methodVisitor.visitLdcInsn(i);
             methodVisitor.visitMethodInsn(INVOKEVIRTUAL, "java/lang/String", "charAt", "(I)C");
             methodVisitor.visitMethodInsn(INVOKESTATIC, "java/lang/Character", "valueOf",
@@ -1748,46 +4091,113 @@ import java.util.concurrent.atomic.AtomicInteger;
             methodVisitor.visitVarInsn(ASTORE, matchedPieceVar);
           }
         } else {
-          int matchedPieceVar = context.localVarIndex(context.newLocalVariable((Variable) child));
-          int strLen = context.localVarIndex(RUNTIME_STR_LEN_PREFIX + argIndex);
-
-//          methodVisitor.visitVarInsn(ALOAD, argIndex);
-          methodVisitor.visitIntInsn(ILOAD, strLen);
-          methodVisitor.visitIntInsn(BIPUSH, 1);
-
-          Label restOfString = new Label();
-          Label assignToPiece = new Label();
-
-          methodVisitor.visitJumpInsn(IF_ICMPNE, restOfString);
-          methodVisitor.visitLdcInsn("");
-          methodVisitor.visitJumpInsn(GOTO, assignToPiece);
-          methodVisitor.visitLabel(restOfString);
-
-          methodVisitor.visitVarInsn(ALOAD, argIndex);
-          methodVisitor.visitTypeInsn(CHECKCAST, "java/lang/String");
-
-          methodVisitor.visitIntInsn(ILOAD, lastIndex);
-          methodVisitor.visitIntInsn(BIPUSH, -1);
+          // The rest of the string.
+          int start = context.localVarIndex(context.newLocalVariable());
+          int end = context.localVarIndex(context.newLocalVariable());
 
           Label restOfStringFromI = new Label();
           Label reduceString = new Label();
+          methodVisitor.visitIntInsn(ILOAD, lastIndex);
+          methodVisitor.visitIntInsn(BIPUSH, -1);
           methodVisitor.visitJumpInsn(IF_ICMPLE, restOfStringFromI);
           methodVisitor.visitIntInsn(ILOAD, lastIndex);
           methodVisitor.visitJumpInsn(GOTO, reduceString);
           methodVisitor.visitLabel(restOfStringFromI);
           methodVisitor.visitLdcInsn(i);
           methodVisitor.visitLabel(reduceString);
-          methodVisitor.visitMethodInsn(INVOKEVIRTUAL, "java/lang/String", "substring",
-              "(I)Ljava/lang/String;");
+          methodVisitor.visitVarInsn(ISTORE, start);
+
+          methodVisitor.visitVarInsn(ALOAD, input);
+          methodVisitor.visitMethodInsn(INVOKEVIRTUAL, "java/lang/String", "length", "()I");
+          methodVisitor.visitVarInsn(ISTORE, end);
 
-          methodVisitor.visitLabel(assignToPiece);
-          methodVisitor.visitVarInsn(ASTORE, matchedPieceVar);
+          bindStringSlice((Variable) child, input, start, end);
         }
         i++;
       }
     }
   }
 
+  /**
+   * Binds a variable to a piece of the input string, which is only cut out of it (once)
+   * when the variable is first used.
+   */
+  private void bindStringSlice(Variable var, int input, int start, int end) {
+    Context context = functionStack.peek();
+    int index = context.localVarIndex(context.newLocalVariable(var));
+    methodStack.peek().visitInsn(ACONST_NULL);
+    methodStack.peek().visitVarInsn(ASTORE, index);
+    context.stringSlices.put(index, new int[] { input, start, end });
+  }
+
+  private void emitStringSlice(int index, int[] slice) {
+    MethodVisitor methodVisitor = methodStack.peek();
+    Label cut = new Label();
+    methodVisitor.visitVarInsn(ALOAD, index);
+    methodVisitor.visitInsn(DUP);
+    methodVisitor.visitJumpInsn(IFNONNULL, cut);
+    methodVisitor.visitInsn(POP);
+    methodVisitor.visitVarInsn(ALOAD, slice[0]);
+    methodVisitor.visitVarInsn(ILOAD, slice[1]);
+    methodVisitor.visitVarInsn(ILOAD, slice[2]);
+    methodVisitor.visitMethodInsn(INVOKEVIRTUAL, "java/lang/String", "substring",
+        "(II)Ljava/lang/String;");
+    methodVisitor.visitInsn(DUP);
+    methodVisitor.visitVarInsn(ASTORE, index);
+    methodVisitor.visitLabel(cut);
+  }
+
+  /**
+   * The slots of the string slice a variable is bound to, if it is one.
+   */
+  private static int[] stringSlice(Context context, Node node) {
+    node = unwrapped(node);
+    if (!(node instanceof Variable))
+      return null;
+
+    String name = ((Variable) node).name;
+    Integer index = context.localVarIndex(name);
+    if (index == null
+        || context.intLocalVarIndex.containsKey(name)
+        || context.argumentIndex.containsKey(name))
+      return null;
+    return context.stringSlices.get(index);
+  }
+
+  /**
+   * Compares a string slice against a literal in place, without cutting it out.
+   */
+  private boolean emitStringSliceComparison(Node left, Node right, boolean equal, Label target) {
+    int[] slice = stringSlice(functionStack.peek(), left);
+    right = unwrapped(right);
+    if (slice == null || !(right instanceof StringLiteral) || ((StringLiteral) right).parts != null)
+      return false;
+
+    MethodVisitor methodVisitor = methodStack.peek();
+    String literal = ((StringLiteral) right).unquotedValue();
+    Label unequal = equal ? new Label() : target;
+
+    // end - start == length && input.regionMatches(start, literal, 0, length)
+    methodVisitor.visitVarInsn(ILOAD, slice[2]);
+    methodVisitor.visitVarInsn(ILOAD, slice[1]);
+    methodVisitor.visitInsn(ISUB);
+    methodVisitor.visitLdcInsn(literal.length());
+    methodVisitor.visitJumpInsn(IF_ICMPNE, unequal);
+    methodVisitor.visitVarInsn(ALOAD, slice[0]);
+    methodVisitor.visitVarInsn(ILOAD, slice[1]);
+    methodVisitor.visitLdcInsn(literal);
+    methodVisitor.visitInsn(ICONST_0);
+    methodVisitor.visitLdcInsn(literal.length());
+    methodVisitor.visitMethodInsn(INVOKEVIRTUAL, "java/lang/String", "regionMatches",
+        "(ILjava/lang/String;II)Z");
+    if (equal) {
+      methodVisitor.visitJumpInsn(IFNE, target);
+      methodVisitor.visitLabel(unequal);
+    } else
+      methodVisitor.visitJumpInsn(IFEQ, target);
+    return true;
+  }
+
   private void emitListStructurePatternRule(PatternRule rule,
                                             MethodVisitor methodVisitor,
                                             Context context,
@@ -1855,37 +4265,35 @@ import java.util.concurrent.atomic.AtomicInteger;
           trackLineAndColumn(child);
           int localVar = context.localVarIndex(context.newLocalVariable(((Variable) child)));
 
+          // A tail that is only ever passed on by offset needs no view onto the rest.
+          if (j == childrenSize - 1
+              && argIndex == context.listOffsetColumn
+              && context.thisFunction.whereBlock().isEmpty()
+              && !isRead(rule, context.thisFunction, argIndex, ((Variable) child).name)) {
+            context.tailOffsets.put(localVar, i);
+            i++;
+            continue;
+          }
+
+          // Indices are past the offset, if we're walking down this list by offset.
+          methodVisitor.visitVarInsn(ALOAD, argIndex);
+          methodVisitor.visitLdcInsn(i);
+          if (argIndex == context.listOffsetColumn) {
+            methodVisitor.visitVarInsn(ILOAD, context.listOffsetIndex);
+            methodVisitor.visitInsn(IADD);
+          }
+
           if (j < childrenSize - 1) {
-            methodVisitor.visitVarInsn(ALOAD, argIndex);
-            methodVisitor.visitLdcInsn(i);
             methodVisitor.visitMethodInsn(INVOKEINTERFACE, "java/util/List", "get",
                 "(I)Ljava/lang/Object;");
-            methodVisitor.visitVarInsn(ASTORE, localVar);
           } else {
-            methodVisitor.visitIntInsn(ILOAD, runtimeListSizeVar);
-            methodVisitor.visitIntInsn(BIPUSH, 1);
-            Label storeEmptyList = new Label();
-            methodVisitor.visitJumpInsn(IF_ICMPEQ, storeEmptyList);
-
-            // Otherwise store a slice of the list.
-            methodVisitor.visitVarInsn(ALOAD, argIndex);
-            methodVisitor.visitLdcInsn(i);
-            methodVisitor.visitIntInsn(ILOAD, runtimeListSizeVar);
-            methodVisitor.visitMethodInsn(INVOKEINTERFACE, "java/util/List", "subList",
-                "(II)Ljava/util/List;");
-            methodVisitor.visitVarInsn(ASTORE, localVar);
-
-            Label endOfStoreEmptyList = new Label();
-            methodVisitor.visitJumpInsn(GOTO, endOfStoreEmptyList);
-
-            methodVisitor.visitLabel(storeEmptyList);
-            methodVisitor.visitFieldInsn(GETSTATIC, "java/util/Collections", "EMPTY_LIST",
-                "Ljava/util/List;");
-            methodVisitor.visitVarInsn(ASTORE, localVar);
-            methodVisitor.visitLabel(endOfStoreEmptyList);
-//            methodVisitor.visitJumpInsn(GOTO, matchedClause);
-
+            // The rest of the list, as a flat view onto it.
+            methodVisitor.visitMethodInsn(INVOKESTATIC, "loop/runtime/TailList", "of",
+                "(Ljava/lang/Object;I)Ljava/util/List;");
+            if (argIndex == context.listOffsetColumn)
+              context.tailOffsets.put(localVar, i);
           }
+          methodVisitor.visitVarInsn(ASTORE, localVar);
 
           i++;
         }
@@ -6,6 +6,7 @@ import org.objectweb.asm.Label;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -22,6 +23,28 @@ public class Context {
   final List<String> localVars = new ArrayList<String>();
   final Map<String, Integer> localVarIndex = new HashMap<String, Integer>();
 
+  // The slot each local's name was bound to before it, if any, in the same order as
+  // localVars. Put back when the local goes out of scope, see closeScope().
+  private final List<Integer> shadowedLocals = new ArrayList<Integer>();
+
+  // Locals held unboxed in an int slot, such as the counter of a loop over a range.
+  final Map<String, Integer> intLocalVarIndex = new HashMap<String, Integer>();
+
+  // For functions that walk down a list argument by offset rather than by tail views: the
+  // argument, the int slot holding its offset, and the number of elements each bound tail
+  // variable (by slot) skips past that offset.
+  int listOffsetColumn = -1;
+  int listOffsetIndex = -1;
+  final Map<Integer, Integer> tailOffsets = new HashMap<Integer, Integer>();
+
+  // For functions that tail call others in a cycle, the slot holding the tail call they
+  // return to the trampoline in place of making those calls.
+  int tailCallIndex = -1;
+
+  // Pieces of strings bound by string patterns, by slot: the slots holding the input string
+  // and the start and end of the piece. The piece is only cut out of the input when used.
+  final Map<Integer, int[]> stringSlices = new HashMap<Integer, int[]>();
+
   final Map<String, FunctionDecl> localFunctions = new HashMap<String, FunctionDecl>();
 
   final Label startOfFunction = new Label();
@@ -41,23 +64,12 @@ public class Context {
 
   public String newLocalVariable() {
     String var = "$__" + localVariableNameSequence.incrementAndGet();
-    int index = arguments.size() + localVars.size();
-
-    localVars.add(var);
-    localVarIndex.put(var, index);
-
+    newLocalVariable(var);
     return var;
   }
 
   public String newLocalVariable(Variable var) {
-    if (arguments.isEmpty()) {
-      localVarIndex.put(var.name, localVars.size());
-      localVars.add(var.name);
-    } else {
-      int index = arguments.size() + localVars.size();
-      localVars.add(var.name);
-      localVarIndex.put(var.name, index);
-    }
+    newLocalVariable(var.name);
     return var.name;
   }
 
@@ -65,10 +77,48 @@ public class Context {
     int index = arguments.size() + localVars.size();
 
     localVars.add(localVar);
-    localVarIndex.put(localVar, index);
+    shadowedLocals.add(localVarIndex.put(localVar, index));
     return index;
   }
 
+  /**
+   * Starts a scope for the locals needed while emitting an expression, which are all dead
+   * once its value is on the stack. Give what this returns to {@link #closeScope} at that
+   * point, and the slots of all locals made in between are handed out again to later ones.
+   */
+  public int openScope() {
+    return localVars.size();
+  }
+
+  public void closeScope(int scope) {
+    int firstSlot = arguments.size() + scope;
+    for (int i = localVars.size() - 1; i >= scope; i--) {
+      String name = localVars.remove(i);
+      Integer shadowed = shadowedLocals.remove(i);
+      int index = arguments.size() + i;
+
+      if (Integer.valueOf(index).equals(localVarIndex.get(name))) {
+        if (shadowed == null)
+          localVarIndex.remove(name);
+        else
+          localVarIndex.put(name, shadowed);
+      }
+      tailOffsets.remove(index);
+      stringSlices.remove(index);
+    }
+
+    // Nor may anything else bound to these slots (such as loop variables) outlive them.
+    unbindFrom(localVarIndex, firstSlot);
+    unbindFrom(intLocalVarIndex, firstSlot);
+  }
+
+  private static void unbindFrom(Map<String, Integer> index, int firstSlot) {
+    for (Iterator<Integer> slots = index.values().iterator(); slots.hasNext(); ) {
+      if (slots.next() >= firstSlot)
+        slots.remove();
+    }
+  }
+
   public void newFreeVariable(Variable freeVariable) {
     localVarIndex.put(freeVariable.name, arguments.size());
   }
@@ -36,6 +36,7 @@ import java.util.regex.Pattern;
  *   <li>Parser - processes the stream of tokens to create productions in the form of an AST</li>
  *   <li>Reducer - strips the AST of redundant or crufty nodes to make a compact AST</li>
  *   <li>Verifier - Analyzes the compact AST for scope, symbol and import errors and reports them</li>
+ *   <li>TypeInferrer - Proves which arithmetic is over ints, longs or doubles so it can be emitted unboxed</li>
  *   <li>AsmCodeEmitter - Translates the compact AST into JVM bytecode (loadable Classes)</li>
  *   <li>LoopClassLoader - Loads the raw bytecode into a special classloader during execution</li>
  * </ol>
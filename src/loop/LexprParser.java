@@ -980,7 +980,7 @@ public class LexprParser implements Parser {
   }
 
   /**
-   * comprehension := FOR variable IN computation (AND computation)?
+   * comprehension := FOR PARALLEL? variable IN computation (AND computation)?
    */
   private Node comprehension() {
     List<Token> forTokens = match(Kind.FOR);
@@ -988,6 +988,14 @@ public class LexprParser implements Parser {
       return null;
     }
 
+    // 'parallel' is only a keyword when followed by the variable, so it is still a legal name.
+    boolean parallel = i + 1 < tokens.size()
+        && tokens.get(i).kind == Kind.IDENT
+        && RestrictedKeywords.PARALLEL.equals(tokens.get(i).value)
+        && tokens.get(i + 1).kind == Kind.IDENT;
+    if (parallel)
+      i++;
+
     Node variable = variable();
     if (null == variable) {
       addError("Expected variable identifier after 'for' in list comprehension", tokens.get(i - 1));
@@ -1006,7 +1014,7 @@ public class LexprParser implements Parser {
     }
 
     if (match(Token.Kind.IF) == null) {
-      return new Comprehension(variable, inList, null).sourceLocation(forTokens);
+      return new Comprehension(variable, inList, null, parallel).sourceLocation(forTokens);
     }
 
     Node filter = computation();
@@ -1015,7 +1023,7 @@ public class LexprParser implements Parser {
       throw new LoopCompileException();
     }
 
-    return new Comprehension(variable, inList, filter).sourceLocation(forTokens);
+    return new Comprehension(variable, inList, filter, parallel).sourceLocation(forTokens);
   }
 
   /**
@@ -2,6 +2,7 @@ package loop;
 
 import loop.ast.*;
 import loop.ast.script.FunctionDecl;
+import loop.runtime.Operations;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -26,7 +27,12 @@ public class Reducer {
       ast = onlyChildOf(ast);
     }
 
-    return reduce(ast, true);
+    ast = reduce(ast, true);
+
+    // Folding constants may leave a computation of just the result behind.
+    if (ast instanceof Computation && shouldUnwrap(ast) && valueOf(onlyChildOf(ast)) != null)
+      return onlyChildOf(ast);
+    return ast;
   }
 
   private Node reduce(Node bloated, boolean tailPath) {
@@ -73,6 +79,19 @@ public class Reducer {
           indexIntoList.to(onlyChildOf(indexIntoList.to()));
         }
       }
+    } else if (bloated instanceof ListRange) {
+      ListRange range = (ListRange) bloated;
+
+      if (null != range.from) {
+        reduce(range.from, false);
+        if (shouldUnwrap(range.from))
+          range.from = onlyChildOf(range.from);
+      }
+      if (null != range.to) {
+        reduce(range.to, false);
+        if (shouldUnwrap(range.to))
+          range.to = onlyChildOf(range.to);
+      }
     } else if (bloated instanceof Comprehension) {
       Comprehension comprehension = (Comprehension) bloated;
 
@@ -119,6 +138,10 @@ public class Reducer {
       }
     }
 
+    // Work out any arithmetic on literals right away.
+    if (bloated instanceof Computation)
+      foldConstants(reduced);
+
     bloated.children().clear();
     bloated.children().addAll(reduced);
 
@@ -155,6 +178,111 @@ public class Reducer {
     }
   }
 
+  /**
+   * Replaces a leading run of arithmetic on literals in a computation with its result, e.g.
+   * {@code 60 * 60 * 24 * x} becomes {@code 86400 * x}. Computations are evaluated strictly
+   * left to right, so only the front of the chain can be folded. Anything that would fail
+   * (say, dividing by zero) is left alone to fail at runtime as before.
+   */
+  private static void foldConstants(List<Node> chain) {
+    if (chain.size() < 2)
+      return;
+
+    Object value = valueOf(chain.get(0));
+    Node literal = null;
+    int folded = 0;
+    for (int i = 1; value != null && i < chain.size(); i++) {
+      Node node = chain.get(i);
+      if (!(node instanceof BinaryOp) || node.children().size() != 1)
+        break;
+
+      Object operand = valueOf(onlyChildOf(node));
+      value = operand == null ? null : fold(((BinaryOp) node).operator.kind, value, operand);
+
+      Node result = value == null ? null : literalOf(value);
+      if (result != null) {
+        literal = result;
+        folded = i;
+      }
+    }
+    if (literal == null)
+      return;
+
+    literal.sourceLocation(chain.get(0));
+    chain.subList(0, folded + 1).clear();
+    chain.add(0, literal);
+  }
+
+  private static Object fold(Token.Kind operator, Object left, Object right) {
+    try {
+      switch (operator) {
+        case PLUS:
+          return Operations.plus(left, right);
+        case MINUS:
+          return Operations.minus(left, right);
+        case STAR:
+          return Operations.multiply(left, right);
+        case DIVIDE:
+          return Operations.divide(left, right);
+        case MODULUS:
+          return Operations.remainder(left, right);
+        default:
+          return null;
+      }
+    } catch (RuntimeException e) {
+      return null;
+    }
+  }
+
+  private static Object valueOf(Node node) {
+    if (node instanceof IntLiteral)
+      return ((IntLiteral) node).value;
+    if (node instanceof LongLiteral)
+      return ((LongLiteral) node).value;
+    if (node instanceof DoubleLiteral)
+      return ((DoubleLiteral) node).value;
+    if (node instanceof StringLiteral && ((StringLiteral) node).parts == null)
+      return ((StringLiteral) node).unquotedValue();
+    return null;
+  }
+
+  private static Node literalOf(Object value) {
+    if (value instanceof Integer)
+      return new IntLiteral(value.toString());
+    if (value instanceof Long)
+      return new LongLiteral(value + "L");
+    if (value instanceof Double)
+      return new DoubleLiteral(value.toString());
+
+    // Backslashes would be taken for escapes all over again.
+    if (value instanceof String && ((String) value).indexOf('\\') == -1)
+      return new StringLiteral("'" + value + "'");
+    return null;
+  }
+
+  /**
+   * Whether this is a (non-empty) inline list or hash map made only of literals, and so can
+   * be built once into a constant rather than every time it is reached. Sorted maps are
+   * left out as the constant would lose their ordering.
+   */
+  public static boolean isConstantCollection(Node node) {
+    if (!(node instanceof InlineListDef && !((InlineListDef) node).isSet)
+        && !(node instanceof InlineMapDef && !((InlineMapDef) node).isTree))
+      return false;
+    if (node.children().isEmpty())
+      return false;
+
+    // Booleans can't go into immutable collections.
+    for (Node child : node.children()) {
+      if (valueOf(child) == null
+          && !(child instanceof FloatLiteral)
+          && !(child instanceof BigIntegerLiteral)
+          && !(child instanceof BigDecimalLiteral))
+        return false;
+    }
+    return true;
+  }
+
   public static Node onlyChildOf(Node node) {
     return node.children().get(0);
   }
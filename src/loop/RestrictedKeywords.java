@@ -9,6 +9,7 @@ public class RestrictedKeywords {
   public static final String EXCEPT = "except";
   public static final String AS = "as";
   public static final String ENSURE = "@ensure";
+  public static final String PARALLEL = "parallel";
 
   public static boolean isStaticOperator(List<Token> tokens) {
     if (null == tokens || tokens.size() != 2)
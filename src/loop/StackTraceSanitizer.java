@@ -5,6 +5,8 @@ import loop.ast.script.ModuleDecl;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * @author dhanji@gmail.com (Dhanji R. Prasanna)
@@ -42,12 +44,73 @@ public class StackTraceSanitizer {
         }
       }
 
-      pruned.add(element);
+      addInlined(element, pruned);
     }
 
     t.setStackTrace(pruned.toArray(new StackTraceElement[pruned.size()]));
   }
 
+  /**
+   * Code inlined from another function is emitted with line numbers from
+   * {@link #FIRST_INLINED_LINE} up, which are given back to the function it came from here,
+   * as a frame of its own on top of the frame it was inlined into.
+   */
+  private static void addInlined(StackTraceElement element, List<StackTraceElement> pruned) {
+    List<InlinedFunction> inlined = INLINED.get(element.getClassName());
+    if (inlined != null) {
+      for (int i = inlined.size() - 1; i >= 0; i--) {
+        InlinedFunction function = inlined.get(i);
+        int line = element.getLineNumber();
+        if (line < function.firstInlinedLine || line >= function.firstInlinedLine + function.lines)
+          continue;
+
+        pruned.add(new StackTraceElement(function.module, function.function, function.fileName,
+            function.firstLine + line - function.firstInlinedLine));
+        element = new StackTraceElement(element.getClassName(), element.getMethodName(),
+            element.getFileName(), function.callLine);
+      }
+    }
+    pruned.add(element);
+  }
+
+  // Line numbers from here up belong to inlined functions.
+  public static final int FIRST_INLINED_LINE = 0x8000;
+
+  private static final Map<String, List<InlinedFunction>> INLINED =
+      new ConcurrentHashMap<String, List<InlinedFunction>>();
+
+  /**
+   * Records the functions inlined into a (newly compiled) Loop module, in the order they
+   * were inlined, so that calls inlined into inlined functions come after them.
+   */
+  public static void inlined(String module, List<InlinedFunction> functions) {
+    if (functions.isEmpty())
+      INLINED.remove(module);
+    else
+      INLINED.put(module, functions);
+  }
+
+  public static class InlinedFunction {
+    final String module;
+    final String function;
+    final String fileName;
+    final int firstLine;
+    final int firstInlinedLine;
+    final int lines;
+    final int callLine;
+
+    public InlinedFunction(String module, String function, String fileName, int firstLine,
+                           int firstInlinedLine, int lines, int callLine) {
+      this.module = module;
+      this.function = function;
+      this.fileName = fileName;
+      this.firstLine = firstLine;
+      this.firstInlinedLine = firstInlinedLine;
+      this.lines = lines;
+      this.callLine = callLine;
+    }
+  }
+
   public static void cleanForShell(Throwable e) {
     StackTraceElement[] trace = e.getStackTrace();
     List<StackTraceElement> pruned = new ArrayList<StackTraceElement>(trace.length);
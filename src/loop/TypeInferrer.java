@@ -0,0 +1,551 @@
+package loop;
+
+import loop.ast.*;
+import loop.ast.script.ArgDeclList;
+import loop.ast.script.FunctionDecl;
+import loop.runtime.Scope;
+import loop.runtime.regex.NamedPattern;
+import org.objectweb.asm.Type;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Local type inference for numeric expressions. Runs over the reduced AST just before code
+ * emission, and proves where operands are definitely ints, longs or doubles so that the
+ * {@link AsmCodeEmitter} can compute them unboxed, boxing only once at the boundary where
+ * the value escapes into Object-land.
+ * <p/>
+ * Types are proven from:
+ * <ul>
+ *   <li>numeric literals</li>
+ *   <li>elements of list ranges (which are always ints)</li>
+ *   <li>zero-argument {@code size()} and {@code length()} Java calls</li>
+ *   <li>int and double arithmetic over any of the above</li>
+ *   <li>local variables assigned exactly one of the above</li>
+ * </ul>
+ * Anything else (function arguments, pattern bindings, calls) is left untyped.
+ */
+class TypeInferrer {
+  private final Scope scope;
+  private final Map<Node, Type> types = new IdentityHashMap<Node, Type>();
+  private final Map<String, FunctionDecl> intFunctions = new HashMap<String, FunctionDecl>();
+  private final Set<Call> intCalls =
+      Collections.newSetFromMap(new IdentityHashMap<Call, Boolean>());
+
+  // Where-block functions in scope, which shadow top-level functions of the same name.
+  private final Set<String> localFunctions = new HashSet<String>();
+
+  TypeInferrer(Scope scope) {
+    this.scope = scope;
+  }
+
+  /**
+   * Returns the proven primitive type of the given expression, or null if it is unknown.
+   */
+  public Type typeOf(Node node) {
+    return types.get(node);
+  }
+
+  /**
+   * Returns true if the given function only ever takes and returns ints, so that it can
+   * also be emitted with a primitive {@code (I...)I} signature.
+   */
+  public boolean isIntFunction(FunctionDecl functionDecl) {
+    return intFunctions.get(functionDecl.name()) == functionDecl;
+  }
+
+  /**
+   * Returns true if the given call is to an int function with arguments proven to be ints,
+   * so that it can pass them unboxed. Its result is still unknown, as the function may
+   * overflow into a Long.
+   */
+  public boolean isIntCall(Call call) {
+    return intCalls.contains(call);
+  }
+
+  /**
+   * Finds the top-level functions whose bodies are made up purely of int arithmetic,
+   * comparisons, literal int patterns and calls to other such functions. Since these may
+   * be mutually recursive, we start by assuming every candidate qualifies and discard
+   * those that call outside the set until nothing changes.
+   */
+  public void inferSignatures(Collection<FunctionDecl> functions) {
+    for (FunctionDecl functionDecl : functions) {
+      if (isIntFunctionShape(functionDecl))
+        intFunctions.put(functionDecl.name(), functionDecl);
+    }
+
+    boolean changed = true;
+    while (changed) {
+      changed = false;
+      Iterator<FunctionDecl> iterator = intFunctions.values().iterator();
+      while (iterator.hasNext()) {
+        if (!isIntBody(iterator.next())) {
+          iterator.remove();
+          changed = true;
+        }
+      }
+    }
+  }
+
+  private static boolean isIntFunctionShape(FunctionDecl functionDecl) {
+    if (functionDecl.isAnonymous()
+        || functionDecl.cell != null
+        || functionDecl.exceptionHandler != null
+        || !functionDecl.whereBlock().isEmpty()
+        || functionDecl.arguments().children().isEmpty())
+      return false;
+
+    for (Node arg : functionDecl.arguments().children()) {
+      String type = ((ArgDeclList.Argument) arg).type();
+      if (type != null && !"Integer".equals(type))
+        return false;
+    }
+    return true;
+  }
+
+  private boolean isIntBody(FunctionDecl functionDecl) {
+    List<Node> children = functionDecl.children();
+    if (!functionDecl.patternMatching)
+      return children.size() == 1
+          && isIntExpression(children.get(0), intArguments(functionDecl, null));
+
+    for (int i = 0, childrenSize = children.size(); i < childrenSize; i++) {
+      PatternRule rule = (PatternRule) children.get(i);
+      boolean isLast = i == childrenSize - 1;
+
+      // The last rule must match anything, so the specialization never falls through.
+      for (Node pattern : rule.patterns) {
+        if (!(pattern instanceof WildcardPattern
+            || pattern instanceof Variable
+            || (pattern instanceof IntLiteral && !isLast)))
+          return false;
+      }
+
+      Map<String, Integer> arguments = intArguments(functionDecl, rule);
+      if (rule.rhs != null) {
+        if (!isIntExpression(rule.rhs, arguments))
+          return false;
+        continue;
+      }
+
+      List<Node> guards = rule.children();
+      if (guards.isEmpty())
+        return false;
+      for (int j = 0, guardsSize = guards.size(); j < guardsSize; j++) {
+        Guard guard = (Guard) guards.get(j);
+        boolean isOtherwise = guard.expression instanceof OtherwiseGuard;
+        if (!(isOtherwise || isIntComparison(guard.expression, arguments))
+            || (isLast && j == guardsSize - 1 && !isOtherwise)
+            || !isIntExpression(guard.line, arguments))
+          return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns the names bound to each int argument of a function, including any names
+   * given to them by the patterns of the given rule.
+   */
+  static Map<String, Integer> intArguments(FunctionDecl functionDecl, PatternRule rule) {
+    Map<String, Integer> arguments = new HashMap<String, Integer>();
+    List<Node> args = functionDecl.arguments().children();
+    for (int i = 0, argsSize = args.size(); i < argsSize; i++) {
+      arguments.put(((ArgDeclList.Argument) args.get(i)).name(), i);
+    }
+
+    if (rule != null)
+      for (int i = 0, patternsSize = rule.patterns.size(); i < patternsSize; i++) {
+        Node pattern = rule.patterns.get(i);
+        if (pattern instanceof Variable)
+          arguments.put(((Variable) pattern).name, i);
+      }
+    return arguments;
+  }
+
+  private boolean isIntExpression(Node node, Map<String, Integer> arguments) {
+    if (node instanceof IntLiteral)
+      return true;
+    if (node instanceof Variable)
+      return arguments.containsKey(((Variable) node).name);
+
+    if (node instanceof Computation) {
+      List<Node> children = node.children();
+      if (!isIntExpression(children.get(0), arguments))
+        return false;
+
+      for (int i = 1, childrenSize = children.size(); i < childrenSize; i++) {
+        Node child = children.get(i);
+        if (!(child instanceof BinaryOp) || !isArithmetic(((BinaryOp) child).operator.kind)
+            || !isIntExpression(((BinaryOp) child).onlyChild(), arguments))
+          return false;
+      }
+      return true;
+    }
+
+    if (node instanceof TernaryIfExpression || node instanceof TernaryUnlessExpression) {
+      List<Node> children = node.children();
+      return isIntComparison(children.get(0), arguments)
+          && isIntExpression(children.get(1), arguments)
+          && isIntExpression(children.get(2), arguments);
+    }
+
+    if (node instanceof Call) {
+      Call call = (Call) node;
+      FunctionDecl target = intFunctions.get(call.name());
+      List<Node> args = call.args().children();
+      if (target == null
+          || call.namespace() != null
+          || call.callJava()
+          || call.isJavaStatic()
+          || call.isPostfix()
+          || arguments.containsKey(call.name())
+          || args.size() != target.arguments().children().size())
+        return false;
+
+      for (Node arg : args) {
+        if (!isIntExpression(arg, arguments))
+          return false;
+      }
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * An int arithmetic chain ending in a comparison, for example {@code n % 2 == 0}.
+   */
+  private boolean isIntComparison(Node node, Map<String, Integer> arguments) {
+    if (!(node instanceof Computation) || node.children().size() < 2)
+      return false;
+
+    List<Node> children = node.children();
+    if (!isIntExpression(children.get(0), arguments))
+      return false;
+
+    for (int i = 1, childrenSize = children.size(); i < childrenSize; i++) {
+      Node child = children.get(i);
+      if (!(child instanceof BinaryOp)
+          || !isIntExpression(((BinaryOp) child).onlyChild(), arguments))
+        return false;
+
+      Token.Kind kind = ((BinaryOp) child).operator.kind;
+      if (i < childrenSize - 1 ? !isArithmetic(kind) : !isComparison(kind))
+        return false;
+    }
+    return true;
+  }
+
+  static boolean isArithmetic(Token.Kind kind) {
+    switch (kind) {
+      case PLUS:
+      case MINUS:
+      case STAR:
+      case DIVIDE:
+      case MODULUS:
+        return true;
+    }
+    return false;
+  }
+
+  static boolean isComparison(Token.Kind kind) {
+    switch (kind) {
+      case LESSER:
+      case LEQ:
+      case GREATER:
+      case GEQ:
+      case EQUALS:
+      case NOT:
+        return true;
+    }
+    return false;
+  }
+
+  public void infer(FunctionDecl functionDecl) {
+    Map<String, Type> variables = new HashMap<String, Type>();
+    Set<String> untyped = new HashSet<String>();
+
+    for (Node arg : functionDecl.arguments().children()) {
+      untyped.add(((ArgDeclList.Argument) arg).name());
+    }
+    for (Node child : functionDecl.children()) {
+      if (child instanceof PatternRule)
+        collectBindings(((PatternRule) child).patterns, untyped);
+    }
+
+    Set<String> shadowing = new HashSet<String>();
+    for (Node node : functionDecl.whereBlock()) {
+      if (node instanceof FunctionDecl && localFunctions.add(((FunctionDecl) node).name()))
+        shadowing.add(((FunctionDecl) node).name());
+    }
+
+    // Where-block locals are evaluated before the function body. They are also re-evaluated
+    // inside any nested functions, so their values may only be typed from literals.
+    for (Node node : functionDecl.whereBlock()) {
+      if (node instanceof FunctionDecl)
+        infer((FunctionDecl) node);
+      else if (node instanceof Assignment && ((Assignment) node).lhs() instanceof Variable) {
+        Assignment assignment = (Assignment) node;
+        Type rhs = infer(assignment.rhs(), new HashMap<String, Type>(), new HashSet<String>());
+        bind(((Variable) assignment.lhs()).name, rhs, variables, untyped);
+      } else
+        infer(node, variables, untyped);
+    }
+    for (Node node : functionDecl.children()) {
+      infer(node, variables, untyped);
+    }
+    localFunctions.removeAll(shadowing);
+  }
+
+  public void inferAll(List<Node> expressions) {
+    Map<String, Type> variables = new HashMap<String, Type>();
+    Set<String> untyped = new HashSet<String>();
+    for (Node expression : expressions) {
+      infer(expression, variables, untyped);
+    }
+  }
+
+  private Type infer(Node node, Map<String, Type> variables, Set<String> untyped) {
+    if (node == null)
+      return null;
+
+    // Closures are typed on their own, with their own arguments.
+    if (node instanceof FunctionDecl) {
+      infer((FunctionDecl) node);
+      return null;
+    }
+
+    Type type = null;
+    if (node instanceof IntLiteral)
+      type = Type.INT_TYPE;
+    else if (node instanceof LongLiteral)
+      type = Type.LONG_TYPE;
+    else if (node instanceof DoubleLiteral)
+      type = Type.DOUBLE_TYPE;
+    else if (node instanceof Variable) {
+      String name = ((Variable) node).name;
+      if (!untyped.contains(name))
+        type = variables.get(name);
+    } else if (node instanceof Computation) {
+      return inferComputation((Computation) node, variables, untyped);
+    } else if (node instanceof CallChain) {
+      inferChildren(node, variables, untyped);
+      type = inferCallChain((CallChain) node);
+    } else if (node instanceof Assignment) {
+      Assignment assignment = (Assignment) node;
+      Type rhs = infer(assignment.rhs(), variables, untyped);
+      infer(assignment.lhs(), variables, untyped);
+
+      if (assignment.lhs() instanceof Variable)
+        bind(((Variable) assignment.lhs()).name, rhs, variables, untyped);
+    } else if (node instanceof Comprehension) {
+      Comprehension comprehension = (Comprehension) node;
+      infer(comprehension.inList(), variables, untyped);
+
+      // Ranges only ever contain ints.
+      bind(comprehension.var().name,
+          comprehension.inList() instanceof ListRange ? Type.INT_TYPE : null,
+          variables, untyped);
+
+      infer(comprehension.filter(), variables, untyped);
+      if (!comprehension.projection().isEmpty())
+        infer(comprehension.projectionExpression(), variables, untyped);
+    } else {
+      inferChildren(node, variables, untyped);
+      inferSubnodes(node, variables, untyped);
+      if (node instanceof Call && hasIntArguments((Call) node, untyped))
+        intCalls.add((Call) node);
+    }
+
+    if (type != null)
+      types.put(node, type);
+    return type;
+  }
+
+  private void inferChildren(Node node, Map<String, Type> variables, Set<String> untyped) {
+    for (Node child : node.children()) {
+      infer(child, variables, untyped);
+    }
+  }
+
+  /**
+   * Expressions that hang off a node other than as its children.
+   */
+  private void inferSubnodes(Node node, Map<String, Type> variables, Set<String> untyped) {
+    if (node instanceof Call) {
+      infer(((Call) node).args(), variables, untyped);
+    } else if (node instanceof ConstructorCall) {
+      infer(((ConstructorCall) node).args(), variables, untyped);
+    } else if (node instanceof CallArguments.NamedArg) {
+      infer(((CallArguments.NamedArg) node).arg, variables, untyped);
+    } else if (node instanceof IndexIntoList) {
+      infer(((IndexIntoList) node).from(), variables, untyped);
+      infer(((IndexIntoList) node).to(), variables, untyped);
+    } else if (node instanceof ListRange) {
+      infer(((ListRange) node).from, variables, untyped);
+      infer(((ListRange) node).to, variables, untyped);
+    } else if (node instanceof PatternRule) {
+      infer(((PatternRule) node).rhs, variables, untyped);
+    } else if (node instanceof Guard) {
+      infer(((Guard) node).expression, variables, untyped);
+      infer(((Guard) node).line, variables, untyped);
+    } else if (node instanceof DestructuringPair) {
+      infer(((DestructuringPair) node).rhs, variables, untyped);
+    } else if (node instanceof StringLiteral && ((StringLiteral) node).parts != null) {
+      for (Node part : ((StringLiteral) node).parts) {
+        infer(part, variables, untyped);
+      }
+    }
+  }
+
+  /**
+   * Records the type a computation can be emitted as, and returns the type of its result.
+   * Int arithmetic overflows into a Long at runtime, so its result is not known to be an
+   * int, and long arithmetic (which overflows into a BigInteger) is left untyped entirely.
+   */
+  private Type inferComputation(Computation computation,
+                                Map<String, Type> variables,
+                                Set<String> untyped) {
+    List<Node> children = computation.children();
+    Type type = infer(children.get(0), variables, untyped);
+    boolean mayOverflow = false;
+
+    for (int i = 1, childrenSize = children.size(); i < childrenSize; i++) {
+      Node child = children.get(i);
+      if (!(child instanceof BinaryOp)) {
+        infer(child, variables, untyped);
+        type = null;
+        continue;
+      }
+
+      BinaryOp binaryOp = (BinaryOp) child;
+      Type operand = infer(binaryOp.onlyChild(), variables, untyped);
+      if (type == null || operand == null
+          || type == Type.BOOLEAN_TYPE || operand == Type.BOOLEAN_TYPE) {
+        type = null;
+        continue;
+      }
+
+      switch (binaryOp.operator.kind) {
+        case PLUS:
+        case MINUS:
+        case STAR:
+        case DIVIDE:
+        case MODULUS:
+          type = widest(type, operand);
+          if (type == Type.LONG_TYPE)
+            type = null;
+          else if (type == Type.INT_TYPE)
+            mayOverflow = true;
+          break;
+        case LESSER:
+        case LEQ:
+        case GREATER:
+        case GEQ:
+          type = Type.BOOLEAN_TYPE;
+          break;
+        case EQUALS:
+        case NOT:
+          // Boxed equality never holds across types, and differs for doubles (NaN, -0.0).
+          type = type == operand && type != Type.DOUBLE_TYPE ? Type.BOOLEAN_TYPE : null;
+          break;
+        default:
+          type = null;
+      }
+    }
+
+    if (type == null)
+      return null;
+    types.put(computation, type);
+    return mayOverflow && type != Type.BOOLEAN_TYPE ? null : type;
+  }
+
+  private boolean hasIntArguments(Call call, Set<String> untyped) {
+    FunctionDecl target = intFunctions.get(call.name());
+    List<Node> args = call.args().children();
+    if (target == null
+        || call.namespace() != null
+        || call.callJava()
+        || call.isJavaStatic()
+        || call.isPostfix()
+        || untyped.contains(call.name())
+        || localFunctions.contains(call.name())
+        || args.size() != target.arguments().children().size())
+      return false;
+
+    for (Node arg : args) {
+      if (types.get(arg) != Type.INT_TYPE)
+        return false;
+    }
+    return true;
+  }
+
+  private Type inferCallChain(CallChain chain) {
+    List<Node> children = chain.children();
+    Node last = children.get(children.size() - 1);
+    if (children.size() < 2 || !(last instanceof Call))
+      return null;
+
+    Call call = (Call) last;
+    if (!call.isPostfix() || call.isJavaStatic() || !call.args().children().isEmpty())
+      return null;
+
+    // Java collection and string sizes, unless shadowed by a Loop function.
+    String name = call.name();
+    if (("size".equals(name) || "length".equals(name))
+        && scope.resolveFunction(name, true) == null)
+      return Type.INT_TYPE;
+    return null;
+  }
+
+  private static void bind(String name,
+                           Type type,
+                           Map<String, Type> variables,
+                           Set<String> untyped) {
+    if (untyped.contains(name))
+      return;
+
+    // A variable keeps its type only if every binding agrees on it.
+    if (type == null || (variables.containsKey(name) && variables.get(name) != type)) {
+      variables.remove(name);
+      untyped.add(name);
+    } else
+      variables.put(name, type);
+  }
+
+  private static void collectBindings(List<Node> patterns, Set<String> untyped) {
+    for (Node pattern : patterns) {
+      collectBindings(pattern, untyped);
+    }
+  }
+
+  private static void collectBindings(Node pattern, Set<String> untyped) {
+    if (pattern instanceof Variable)
+      untyped.add(((Variable) pattern).name);
+    else if (pattern instanceof DestructuringPair)
+      collectBindings(((DestructuringPair) pattern).lhs, untyped);
+    else if (pattern instanceof RegexLiteral)
+      untyped.addAll(NamedPattern.compile(((RegexLiteral) pattern).value).groupNames());
+
+    for (Node child : pattern.children()) {
+      collectBindings(child, untyped);
+    }
+  }
+
+  static Type widest(Type left, Type right) {
+    if (left == Type.DOUBLE_TYPE || right == Type.DOUBLE_TYPE)
+      return Type.DOUBLE_TYPE;
+    if (left == Type.LONG_TYPE || right == Type.LONG_TYPE)
+      return Type.LONG_TYPE;
+    return Type.INT_TYPE;
+  }
+}
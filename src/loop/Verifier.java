@@ -270,7 +270,7 @@ class Verifier {
           RegexLiteral regexLiteral = (RegexLiteral) pattern;
           try {
             NamedPattern compiled = NamedPattern.compile(regexLiteral.value);
-            if (compiled.groupNames().contains(name))
+            if (compiled.groupIndex(name) != -1)
               return true;
 
           } catch (RuntimeException e) {
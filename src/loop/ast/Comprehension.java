@@ -10,14 +10,24 @@ import java.util.List;
  */
 public class Comprehension extends Node {
   private List<Node> projection = new ArrayList<Node>();
+  private Node projectionExpression;
   private final Variable var;
   private Node inList;
   private Node filter;
+  private final boolean parallel;
 
-  public Comprehension(Node var, Node inList, Node filter) {
+  public Comprehension(Node var, Node inList, Node filter, boolean parallel) {
     this.var = (Variable) var;
     this.inList = inList;
     this.filter = filter;
+    this.parallel = parallel;
+  }
+
+  /**
+   * True if elements may be projected and filtered concurrently, i.e. {@code for parallel}.
+   */
+  public boolean isParallel() {
+    return parallel;
   }
 
   public Node filter() {
@@ -44,6 +54,21 @@ public class Comprehension extends Node {
     return projection;
   }
 
+  /**
+   * The projection as a single expression, i.e. its chain wrapped in a computation.
+   */
+  public Node projectionExpression() {
+    if (projectionExpression == null) {
+      if (projection.size() == 1)
+        projectionExpression = projection.get(0);
+      else {
+        projectionExpression = new Computation();
+        projectionExpression.children().addAll(projection);
+      }
+    }
+    return projectionExpression;
+  }
+
   public Variable var() {
     return var;
   }
@@ -54,7 +79,7 @@ public class Comprehension extends Node {
     for (Node child : projection) {
       symbol.append(LexprParser.stringify(child)).append(' ');
     }
-    return symbol.append("for ")
+    return symbol.append(parallel ? "for parallel " : "for ")
         .append(var.toSymbol())
         .append(" in ")
         .append(LexprParser.stringify(inList))
@@ -6,9 +6,9 @@ import loop.LexprParser;
  * An inline list. Can be a range or
  */
 public class ListRange extends Node {
-  public final Node from;
+  public Node from;
   private final boolean slice;
-  public final Node to;
+  public Node to;
 
   public ListRange(Node from, boolean slice, Node to) {
     this.from = from;
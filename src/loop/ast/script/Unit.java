@@ -201,6 +201,21 @@ public class Unit implements Scope {
     return executable.getScope().resolveFunction(name, false);
   }
 
+  @Override public Scope scopeOf(FunctionDecl function) {
+    if (functions.get(function.name()) == function)
+      return this;
+
+    for (Executable dep : deps) {
+      if (dep.getScope().resolveFunction(function.name(), false) == function)
+        return dep.getScope();
+    }
+    for (Executable dep : aliasedDeps.values()) {
+      if (dep.getScope().resolveFunction(function.name(), false) == function)
+        return dep.getScope();
+    }
+    return null;
+  }
+
   public ClassDecl getType(String name) {
     return classes.get(name);
   }
@@ -14,31 +14,7 @@ import java.util.concurrent.ConcurrentMap;
  */
 @SuppressWarnings("unchecked")
 public class Caller {
-  private static final Map<Class, Set<Class>> compatibleTypes = new HashMap<Class, Set<Class>>();
-  private static final Map<Class, Class> convertibleTypes = new HashMap<Class, Class>();
-
-  static {
-    compatibleTypes.put(long.class, new HashSet<Class>(
-        Arrays.asList(int.class, Short.class, short.class, Integer.class, Long.class, Byte.class,
-            byte.class)));
-    compatibleTypes.put(int.class, new HashSet<Class>(
-        Arrays.asList(short.class, Short.class, Integer.class, Byte.class, byte.class)));
-
-    convertibleTypes.put(int.class, Number.class);
-    convertibleTypes.put(long.class, Number.class);
-    convertibleTypes.put(double.class, Double.class);
-    convertibleTypes.put(boolean.class, Boolean.class);
-    convertibleTypes.put(short.class, Short.class);
-    convertibleTypes.put(float.class, Float.class);
-    convertibleTypes.put(byte.class, Byte.class);
-    convertibleTypes.put(char.class, Character.class);
-  }
-
-  // Caches for high performance.
-  private static volatile ConcurrentMap<String, Method> staticMethodCache =
-      new ConcurrentHashMap<String, Method>();
-  private static volatile ConcurrentMap<String, Constructor> staticConstructorCache =
-      new ConcurrentHashMap<String, Constructor>();
+  // Caches for high performance. Methods and constructors are cached by OverloadResolver.
   private static volatile ConcurrentMap<String, Field> staticFieldCache =
       new ConcurrentHashMap<String, Field>();
   private static volatile ConcurrentMap<String, Method> dynamicMethodCache =
@@ -46,8 +22,7 @@ public class Caller {
   public static final Object[] EMPTY_ARRAY = new Object[0];
 
   public static void reset() {
-    staticConstructorCache = new ConcurrentHashMap<String, Constructor>();
-    staticMethodCache = new ConcurrentHashMap<String, Method>();
+    OverloadResolver.reset();
     dynamicMethodCache = new ConcurrentHashMap<String, Method>();
     staticFieldCache = new ConcurrentHashMap<String, Field>();
   }
@@ -65,78 +40,30 @@ public class Caller {
   }
 
 
-  @SuppressWarnings("unchecked")
   public static Object instantiate(String type, Object... args) throws Exception {
     Class<?> clazz = Class.forName(type);
 
-    String key = type + ':' + args.length;
-    Constructor ctor = staticConstructorCache.get(key);
-
-    if (null == ctor) {
-      boolean cache = true;
-
-      Constructor ctor1 = null;
-      // Choose the appropriate constructor.
-      for (Constructor constructor : clazz.getConstructors()) {
-        if (constructor.getParameterTypes().length == args.length) {
-          Class[] parameterTypes = constructor.getParameterTypes();
-
-          // Don't cache constructors if there are other ctors of the same length, as
-          // they need to be resolved each time.
-          if (ctor1 != null && ctor1.getParameterTypes().length == parameterTypes.length)
-            cache = false;
-
-          boolean acceptable = true;
-          for (int i = 0, parameterTypesLength = parameterTypes.length;
-               i < parameterTypesLength;
-               i++) {
-            Class argType = parameterTypes[i];
-            Object arg = args[i];
-
-            if (arg != null && !isAssignable(argType, arg)) {
-              acceptable = false;
-              break;
-            }
-          }
-
-          if (acceptable) {
-            ctor1 = constructor;
-          }
-        }
-      }
-
-      if (ctor1 != null && cache)
-        staticConstructorCache.putIfAbsent(key, ctor1);
-      ctor = ctor1;
-    }
-
+    Constructor ctor = OverloadResolver.resolveConstructor(clazz, args);
     if (ctor == null)
       throw new RuntimeException("No suitable constructor matched");
 
     return ctor.newInstance(args);
   }
 
-  private static boolean isAssignable(Class argType, Object arg) {
-    Set<Class> compatible = compatibleTypes.get(argType);
-    if (compatible != null) {
-      return compatible.contains(arg.getClass());
-    }
-
-    return (Number.class.isAssignableFrom(argType) && Number.class.isAssignableFrom(arg.getClass()))
-        || argType.isAssignableFrom(arg.getClass());
+  /**
+   * The value of a range literal, which whoever gets it is free to change.
+   */
+  public static Object range(Object from, Object to) {
+    return new RangeList(readOnlyRange(from, to));
   }
 
-  // Messy, we should inline this really.
-  public static Object range(Object from, Object to) {
-    if (from instanceof Integer) {
-      Integer start = (Integer) from;
-      int distance = ((Integer) to) - start + 1;
-      List<Integer> range = new ArrayList<Integer>(distance);
-      for (int i = start; i < start + distance; i++) {
-        range.add(i);
-      }
-      return range;
-    }
+  /**
+   * A range for code that only reads it, such as the source of a comprehension, whose
+   * elements are never stored.
+   */
+  public static IntRange readOnlyRange(Object from, Object to) {
+    if (from instanceof Integer && to instanceof Integer)
+      return new IntRange((Integer) from, (Integer) to);
 
     throw new RuntimeException("Unknown range type: " + from + " - " + to);
   }
@@ -197,50 +124,7 @@ public class Caller {
     if (target == null)
       return null;
 
-    // This key can be improved to use a bitvector, for example.
-    String name = target.getClass().getName();
-    String key = new StringBuilder(name.length() + method.length() + 5).append(name)
-        .append(':')
-        .append(method)
-        .append(':')
-        .append(args.length)
-        .toString();
-
-    Method toCall = dynamicMethodCache.get(key);
-
-    if (toCall == null) {
-      for (Method candidate : target.getClass().getMethods()) {
-        if (signatureMatches(method, candidate, args)) {
-          toCall = candidate;
-          break;
-        }
-      }
-
-      if (toCall == null) {
-        for (Method candidate : target.getClass().getDeclaredMethods()) {
-          if (signatureMatches(method, candidate, args)) {
-            toCall = candidate;
-            break;
-          }
-        }
-      }
-
-      if (null == toCall) {
-        Set<Method> methods = bestMatches(target.getClass().getMethods(), method);
-        methods.addAll(bestMatches(target.getClass().getDeclaredMethods(), method));
-
-        throw new RuntimeException("Method not found: " + name + "#" + method
-            + "(" + Arrays.toString(args) + ")"
-            + (methods.isEmpty() ? "" :
-            "\nBest matches in " + name + "\n\n" + toStringList(methods)));
-      }
-
-      if (!toCall.isAccessible())
-        toCall.setAccessible(true);
-
-      dynamicMethodCache.putIfAbsent(key, toCall);
-    }
-
+    Method toCall = resolveMethod(target.getClass(), method, args);
     try {
       return toCall.invoke(target, args);
     } catch (InvocationTargetException e) {
@@ -248,24 +132,20 @@ public class Caller {
     }
   }
 
-  private static boolean signatureMatches(String method, Method candidate, Object[] args) {
-    Class<?>[] parameterTypes = candidate.getParameterTypes();
-    if (!(candidate.getName().equals(method) && parameterTypes.length == args.length))
-      return false;
-
-    for (int i = 0, parameterTypesLength = parameterTypes.length; i < parameterTypesLength; i++) {
-      Class<?> parameterType = parameterTypes[i];
-      Object arg = args[i];
-
-      if (arg != null) {
-        Class<?> argClass = arg.getClass();
-        if (parameterType.isPrimitive())
-          parameterType = convertibleTypes.get(parameterType);
-        if (!parameterType.isAssignableFrom(argClass))
-          return false;
-      }
+  static Method resolveMethod(Class<?> clazz, String method, Object[] args) {
+    Method toCall = OverloadResolver.resolve(clazz, method, args);
+
+    if (null == toCall) {
+      String name = clazz.getName();
+      Set<Method> methods = bestMatches(clazz.getMethods(), method);
+      methods.addAll(bestMatches(clazz.getDeclaredMethods(), method));
+
+      throw new RuntimeException("Method not found: " + name + "#" + method
+          + "(" + Arrays.toString(args) + ")"
+          + (methods.isEmpty() ? "" :
+          "\nBest matches in " + name + "\n\n" + toStringList(methods)));
     }
-    return true;
+    return toCall;
   }
 
   private static Set<Method> bestMatches(Method[] candidates, String method) {
@@ -329,43 +209,17 @@ public class Caller {
   }
 
   public static Object callStatic(Class<?> clazz, String method, Object[] args) throws Throwable {
-    Method toCall;
-
     String target = clazz.getName();
-    final String key = target + ':' + method + ':' + args.length;
-    toCall = staticMethodCache.get(key);
+    Method toCall = OverloadResolver.resolve(clazz, method, args);
 
     if (toCall == null) {
-      for (Method candidate : clazz.getMethods()) {
-        if (signatureMatches(method, candidate, args)) {
-          toCall = candidate;
-          break;
-        }
-      }
-
-      if (toCall == null) {
-        for (Method candidate : clazz.getDeclaredMethods()) {
-          if (signatureMatches(method, candidate, args)) {
-            toCall = candidate;
-            break;
-          }
-        }
-      }
-
-      if (toCall == null) {
-        Set<Method> methods = bestMatches(clazz.getMethods(), method);
-        methods.addAll(bestMatches(clazz.getDeclaredMethods(), method));
-
-        throw new RuntimeException(
-            "Function not found: " + target + "#" + method + "(" + Arrays.toString(args) + ")"
-                + (methods.isEmpty() ? "" :
-                "\nBest matches in " + target + "\n\n" + toStringList(methods)));
-      }
-
-      if (!toCall.isAccessible())
-        toCall.setAccessible(true);
+      Set<Method> methods = bestMatches(clazz.getMethods(), method);
+      methods.addAll(bestMatches(clazz.getDeclaredMethods(), method));
 
-      staticMethodCache.put(key, toCall);
+      throw new RuntimeException(
+          "Function not found: " + target + "#" + method + "(" + Arrays.toString(args) + ")"
+              + (methods.isEmpty() ? "" :
+              "\nBest matches in " + target + "\n\n" + toStringList(methods)));
     }
 
     try {
@@ -2,14 +2,16 @@ package loop.runtime;
 
 import loop.StackTraceSanitizer;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Concurrent Channels support class for loop's event-driven channel API.
@@ -18,39 +20,129 @@ import java.util.concurrent.atomic.AtomicBoolean;
  */
 public class Channel {
   private static final ExecutorService GLOBAL_EXECUTOR = Executors.newCachedThreadPool();
-  private static final int YIELD_FAIRNESS_CYCLES = 15;
+  private static final ExecutorService VIRTUAL_EXECUTOR = virtualThreadExecutor();
+  private static final int DEFAULT_BUDGET = 15;
 
   private static final String SHUTDOWN = "shutdown";
   private static final String DIE = "die";
 
+  // Scheduling states of serialized channels.
+  private static final int IDLE = 0, SCHEDULED = 1, RUNNING = 2;
+
   static {
     Runtime.getRuntime().addShutdownHook(new Thread() {
       @Override public void run() {
         GLOBAL_EXECUTOR.shutdown();
+        if (VIRTUAL_EXECUTOR != null)
+          VIRTUAL_EXECUTOR.shutdown();
       }
     });
   }
 
   private final String name;
   private final Closure actor;
-  private final ConcurrentLinkedQueue<Object> queue;
-  private final AtomicBoolean running = new AtomicBoolean();
-  private final Runnable runnable;
+  private final Mailbox queue;
+  private final boolean parallel;
   private final ExecutorService executor;
   private final boolean isDedicatedPool;
+
+  // Serialized channels are IDLE with nothing to do, SCHEDULED once a drain task has been
+  // submitted, and RUNNING while it drains the mailbox. Only the sender that moves the
+  // channel out of IDLE submits a task, so there is never more than one.
+  private final AtomicInteger state = new AtomicInteger(IDLE);
+
+  // Concurrent channels instead count their drain tasks, submitted or running, up to a limit.
+  private final AtomicInteger drainers = new AtomicInteger();
+  private final int parallelism;
   private final Map<String, Object> channelMemory = new HashMap<String, Object>();
 
+  // One permit per free mailbox slot, or null if the mailbox is unbounded.
+  private final Semaphore capacity;
+  private final Overflow overflow;
+
+  // Messages per call to the actor in batch mode, where it is given a list of them, or 0.
+  private final int batch;
+
+  // Messages a drain task delivers before it yields its thread to other channels.
+  private final int budget;
+
+  /**
+   * What a bounded mailbox does with a message that arrives when it is full.
+   */
+  public static enum Overflow {
+    // Make the sender wait for room. A serialized actor that sends to itself can deadlock.
+    BLOCK,
+    // Throw away the oldest queued message to make room.
+    DROP_OLDEST,
+    // Throw away the arriving message.
+    DROP_NEWEST,
+    // Throw away the arriving message and raise an error to the sender.
+    FAIL
+  }
+
   public Channel(String name, Closure actor, boolean parallel, int workers) {
+    this(name, actor, parallel, workers, false);
+  }
+
+  public Channel(String name, Closure actor, boolean parallel, int workers, boolean virtual) {
+    this(name, actor, parallel, workers, virtual, 0, null);
+  }
+
+  /**
+   * A channel whose mailbox holds at most the given number of messages, if that is positive,
+   * and deals with any more as the overflow policy says.
+   */
+  public Channel(String name, Closure actor, boolean parallel, int workers, boolean virtual,
+                 int capacity, Overflow overflow) {
+    this(name, actor, parallel, workers, virtual, capacity, overflow, 0, 0);
+  }
+
+  /**
+   * A channel whose actor is called with a list of up to {@code batch} messages at a time, if
+   * that is positive, and which delivers up to {@code budget} messages at a go before letting
+   * other channels have the thread, if that is positive.
+   */
+  public Channel(String name, Closure actor, boolean parallel, int workers, boolean virtual,
+                 int capacity, Overflow overflow, int batch, int budget) {
     this.name = name;
     this.actor = actor;
-    this.queue = new ConcurrentLinkedQueue<Object>();
+    this.capacity = capacity > 0 ? new Semaphore(capacity) : null;
+    this.overflow = overflow == null ? Overflow.BLOCK : overflow;
+
+    // Dropping the oldest message means senders take from the mailbox too.
+    this.queue = parallel || this.overflow == Overflow.DROP_OLDEST
+        ? new Mailbox.Shared()
+        : new MpscMailbox();
 
     if (isDedicatedPool = workers > 0) {
       this.executor = Executors.newFixedThreadPool(workers);
-    } else
+      this.parallelism = workers;
+    } else if (virtual && VIRTUAL_EXECUTOR != null) {
+      // Virtual threads are cheap to park, so let blocking actors have as many as they like.
+      this.executor = VIRTUAL_EXECUTOR;
+      this.parallelism = Integer.MAX_VALUE;
+    } else {
       this.executor = GLOBAL_EXECUTOR;
+      this.parallelism = Runtime.getRuntime().availableProcessors();
+    }
+
+    this.parallel = parallel;
+    this.batch = Math.max(batch, 0);
+    this.budget = Math.max(budget > 0 ? budget : DEFAULT_BUDGET, this.batch);
+  }
 
-    this.runnable = parallel ? concurrentRunnable : isolatedRunnable;
+  /**
+   * Starts a virtual thread per task, so actors that block park without holding on to an OS
+   * thread. Looked up reflectively as we still build for 1.7, and null on JVMs older than 21,
+   * where channels asking for virtual threads get the global pool instead.
+   */
+  private static ExecutorService virtualThreadExecutor() {
+    try {
+      return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor")
+          .invoke(null);
+    } catch (Exception e) {
+      return null;
+    }
   }
 
   /**
@@ -58,50 +150,31 @@ public class Channel {
    * of the available worker threads. They are useful for sharding semantics.
    */
   private final Runnable isolatedRunnable = new Runnable() {
+    // Only one of these runs at a time, so they can all share a batch.
+    private final List<Object> messages = new ArrayList<Object>();
+
     @Override public void run() {
-      if (!running.compareAndSet(false, true))
+      if (!state.compareAndSet(SCHEDULED, RUNNING))
         return;
 
       try {
         currentChannelMemory.set(channelMemory);
-
-        int processed = 0;
-        while (!queue.isEmpty() && processed < YIELD_FAIRNESS_CYCLES) {
-          try {
-            Object result = Caller.callClosure(actor, actor.target, new Object[]{queue.poll()});
-
-            // Check if we should shutdown this channel.
-            // Allows graceful drain of queued messages.
-            if (SHUTDOWN.equals(result))
-              shutdown();
-            else if (DIE.equals(result)) {
-              // Process no more messages.
-              die();
-              break;
-            }
-
-          } catch (Throwable throwable) {
-            try {
-              StackTraceSanitizer.clean(throwable);
-
-              // Swallow exception if possible.
-              throwable.printStackTrace(System.err);
-            } finally {
-              // Quit VM forcibly on out of memory error.
-              if (throwable instanceof OutOfMemoryError)
-                System.exit(1);
-            }
-          } finally {
-            processed++;
-          }
-        }
+        drain(messages);
       } finally {
         currentChannelMemory.remove();
-        running.compareAndSet(true, false);
 
-        // Tail-call ourselves if we're not done with this queue.
-        if (!queue.isEmpty())
+        // Tail-call ourselves if we're not done with this queue, staying scheduled so that
+        // senders leave it to us.
+        if (!queue.isEmpty()) {
+          state.set(SCHEDULED);
           executor.submit(isolatedRunnable);
+        } else {
+          state.set(IDLE);
+
+          // Anything sent while we were running was left for us, so check again now that
+          // senders can see we're idle.
+          schedule();
+        }
       }
     }
   };
@@ -112,35 +185,70 @@ public class Channel {
    */
   private final Runnable concurrentRunnable = new Runnable() {
     @Override public void run() {
-      int processed = 0;
-      while (!queue.isEmpty() && processed < YIELD_FAIRNESS_CYCLES) {
-        try {
-          Object result = Caller.callClosure(actor, actor.target, new Object[]{queue.poll()});
+      try {
+        drain(batch > 0 ? new ArrayList<Object>(batch) : null);
+      } finally {
+        drainers.decrementAndGet();
+
+        // Leave the rest to the other drainers, or to a new one if we were the last.
+        schedule();
+      }
+    }
+  };
 
-          if (SHUTDOWN.equals(result))
-            shutdown();
-          else if (DIE.equals(result)) {
-            // Process no more messages.
-            die();
+  /**
+   * Calls the actor with queued messages until the queue is empty or the budget is spent,
+   * one at a time or in lists of up to a batch each. The list is reused between calls, so
+   * actors must not hold on to it.
+   */
+  private void drain(List<Object> messages) {
+    Object[] arguments = new Object[1];
+    int processed = 0;
+    while (!queue.isEmpty() && processed < budget) {
+      try {
+        if (batch > 0) {
+          messages.clear();
+          Object message;
+          while (messages.size() < batch && (message = take()) != null)
+            messages.add(message);
+
+          // Another drainer beat us to them, or their senders are still putting them in.
+          if (messages.isEmpty())
+            break;
+          processed += messages.size();
+          arguments[0] = messages;
+        } else {
+          Object message = take();
+          if (message == null)
             break;
-          }
-        } catch (Throwable throwable) {
-          try {
-            StackTraceSanitizer.clean(throwable);
-
-            // Swallow exception if possible.
-            throwable.printStackTrace(System.err);
-          } finally {
-            // Quit VM forcibly on out of memory error.
-            if (throwable instanceof OutOfMemoryError)
-              System.exit(1);
-          }
-        } finally {
           processed++;
+          arguments[0] = message;
+        }
+        Object result = Caller.callClosure(actor, actor.target, arguments);
+
+        // Check if we should shutdown this channel.
+        // Allows graceful drain of queued messages.
+        if (SHUTDOWN.equals(result))
+          shutdown();
+        else if (DIE.equals(result)) {
+          // Process no more messages.
+          die();
+          break;
+        }
+      } catch (Throwable throwable) {
+        try {
+          StackTraceSanitizer.clean(throwable);
+
+          // Swallow exception if possible.
+          throwable.printStackTrace(System.err);
+        } finally {
+          // Quit VM forcibly on out of memory error.
+          if (throwable instanceof OutOfMemoryError)
+            System.exit(1);
         }
       }
     }
-  };
+  }
 
   private static final ThreadLocal<Map<String, Object>> currentChannelMemory = new ThreadLocal<Map<String, Object>>();
 
@@ -152,25 +260,86 @@ public class Channel {
   }
 
   public void shutdown() {
-    channels.remove(name);
+    // Unless a new channel has been established under our name since.
+    channels.remove(name, this);
 
     if (isDedicatedPool)
       executor.shutdown();
   }
 
   public void die() {
-    channels.remove(name);
-    queue.clear();
+    channels.remove(name, this);
+
+    // Taking rather than clearing frees up room for any senders blocked on a full mailbox.
+    while (take() != null);
 
     if (isDedicatedPool)
       executor.shutdownNow();
   }
 
   public void receive(Object message) {
-    queue.add(message);
+    if (!offer(message) && overflow == Overflow.FAIL)
+      throw new RuntimeException("Mailbox of channel " + name + " is full");
+  }
+
+  /**
+   * Like {@link #receive} but never raises an error, returning whether the message was
+   * queued instead.
+   */
+  public boolean offer(Object message) {
+    if (capacity != null && !reserveSlot())
+      return false;
+    queue.offer(message);
+
+    schedule();
+    return true;
+  }
+
+  /**
+   * Submits a task to drain the mailbox if it has messages and no task is already on it. The
+   * tasks call this again once they have given up their claim, so every message is seen by
+   * either a sender or a task that can still submit one.
+   */
+  private void schedule() {
+    if (!parallel) {
+      if (!queue.isEmpty() && state.compareAndSet(IDLE, SCHEDULED))
+        executor.submit(isolatedRunnable);
+      return;
+    }
 
-    if (!running.get())
-      executor.submit(runnable);
+    int current;
+    while (!queue.isEmpty() && (current = drainers.get()) < parallelism) {
+      if (drainers.compareAndSet(current, current + 1)) {
+        executor.submit(concurrentRunnable);
+        return;
+      }
+    }
+  }
+
+  private boolean reserveSlot() {
+    switch (overflow) {
+      case BLOCK:
+        capacity.acquireUninterruptibly();
+        return true;
+      case DROP_OLDEST:
+        // The slot of the message we throw away is ours. If the queue looks empty then the
+        // actor just took from it and is about to give its slot back, so let it run.
+        while (!capacity.tryAcquire()) {
+          if (queue.poll() != null)
+            return true;
+          Thread.yield();
+        }
+        return true;
+      default:
+        return capacity.tryAcquire();
+    }
+  }
+
+  private Object take() {
+    Object message = queue.poll();
+    if (message != null && capacity != null)
+      capacity.release();
+    return message;
   }
 
   private static final ConcurrentMap<String, Channel> channels =
@@ -196,12 +365,36 @@ public class Channel {
 
     Object serialize = options.get("serialize");
     Object threads = options.get("workers");
+    Object executor = options.get("executor");
+    Object capacity = options.get("capacity");
+    Object overflow = options.get("overflow");
+    Object batch = options.get("batch");
+    Object budget = options.get("budget");
 
     int workers = 0;
     if (null != threads)
       workers = (Integer)threads;
     boolean parallel = serialize == null || !(Boolean) serialize;
 
-    channels.put(name, new Channel(name, (Closure)actor, parallel, workers));
+    boolean virtual = "virtual".equals(executor);
+    if (executor != null && !virtual && !"pooled".equals(executor))
+      throw new RuntimeException("Unknown channel executor: " + executor
+          + " (Hint: use @pooled or @virtual)");
+
+    Overflow policy = null;
+    if (overflow != null) {
+      if (capacity == null)
+        throw new RuntimeException("Channel overflow policy given without a capacity");
+      try {
+        policy = Overflow.valueOf(overflow.toString().toUpperCase());
+      } catch (IllegalArgumentException e) {
+        throw new RuntimeException("Unknown channel overflow policy: " + overflow
+            + " (Hint: use @block, @drop_oldest, @drop_newest or @fail)");
+      }
+    }
+
+    channels.put(name, new Channel(name, (Closure)actor, parallel, workers, virtual,
+        capacity == null ? 0 : (Integer) capacity, policy,
+        batch == null ? 0 : (Integer) batch, budget == null ? 0 : (Integer) budget));
   }
 }
@@ -0,0 +1,95 @@
+package loop.runtime;
+
+import java.lang.invoke.MethodHandle;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Runs {@code for parallel} comprehensions. The compiler turns the filter and projection
+ * into a step function of the element and any free variables, which returns {@link #SKIP}
+ * for filtered out elements. Lists are split in half recursively over a fork/join pool,
+ * and the results are gathered back in source order.
+ */
+public class Comprehensions {
+  public static final Object SKIP = new Object();
+
+  // Below this many elements it isn't worth forking at all.
+  static final int THRESHOLD = 1024;
+
+  private static final ForkJoinPool POOL = new ForkJoinPool();
+
+  public static List<Object> parallel(Object source, MethodHandle step, Object[] freeVariables) {
+    List<?> list = source instanceof List && source instanceof RandomAccess
+        ? (List<?>) source
+        : new ArrayList<Object>((Collection<?>) source);
+
+    int size = list.size();
+    Object[] results = new Object[size];
+    if (size < THRESHOLD)
+      new Step(list, step, freeVariables, results, 0, size).compute();
+    else {
+      // Aim for a few slices per core so that uneven elements still balance out.
+      int slice = Math.max(THRESHOLD / 4, size / (POOL.getParallelism() * 4));
+      POOL.invoke(new Step(list, step, freeVariables, results, 0, size, slice));
+    }
+
+    List<Object> out = new ArrayList<Object>(size);
+    for (Object result : results) {
+      if (result != SKIP)
+        out.add(result);
+    }
+    return out;
+  }
+
+  private static class Step extends RecursiveAction {
+    private final List<?> list;
+    private final MethodHandle step;
+    private final Object[] freeVariables;
+    private final Object[] results;
+    private final int from;
+    private final int to;
+    private final int slice;
+
+    Step(List<?> list, MethodHandle step, Object[] freeVariables, Object[] results,
+         int from, int to) {
+      this(list, step, freeVariables, results, from, to, Integer.MAX_VALUE);
+    }
+
+    Step(List<?> list, MethodHandle step, Object[] freeVariables, Object[] results,
+         int from, int to, int slice) {
+      this.list = list;
+      this.step = step;
+      this.freeVariables = freeVariables;
+      this.results = results;
+      this.from = from;
+      this.to = to;
+      this.slice = slice;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from > slice) {
+        int middle = (from + to) >>> 1;
+        invokeAll(new Step(list, step, freeVariables, results, from, middle, slice),
+            new Step(list, step, freeVariables, results, middle, to, slice));
+        return;
+      }
+
+      try {
+        for (int i = from; i < to; i++) {
+          results[i] = (Object) step.invokeExact((Object) list.get(i), freeVariables);
+        }
+      } catch (RuntimeException e) {
+        throw e;
+      } catch (Error e) {
+        throw e;
+      } catch (Throwable throwable) {
+        throw new RuntimeException(throwable);
+      }
+    }
+  }
+}
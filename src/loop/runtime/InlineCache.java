@@ -0,0 +1,120 @@
+package loop.runtime;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.MutableCallSite;
+import java.lang.reflect.Method;
+
+/**
+ * A per-call-site polymorphic inline cache for dynamic (Java interop) method calls. Each
+ * receiver type seen at a site is linked into a chain of exact-class guards that invoke
+ * the resolved method directly, so cache hits neither hash nor allocate a lookup key.
+ * Overloaded methods are additionally guarded on the classes of their arguments.
+ * Once a site has seen more than {@link #MAX_POLYMORPHISM} receiver types it is
+ * considered megamorphic and permanently relinked to {@link Caller#call}.
+ */
+public class InlineCache extends MutableCallSite {
+  static final int MAX_POLYMORPHISM = 4;
+
+  private static final MethodHandle FALLBACK;
+  private static final MethodHandle IS_RECEIVER_TYPE;
+  private static final MethodHandle IS_SIGNATURE;
+  private static final MethodHandle MEGAMORPHIC_CALL;
+  private static final MethodType INVOKER_TYPE =
+      MethodType.methodType(Object.class, Object.class, Object[].class);
+
+  static {
+    MethodHandles.Lookup lookup = MethodHandles.lookup();
+    try {
+      FALLBACK = lookup.findVirtual(InlineCache.class, "fallback", INVOKER_TYPE);
+      IS_RECEIVER_TYPE = lookup.findStatic(InlineCache.class, "isReceiverType",
+          MethodType.methodType(boolean.class, Class.class, Object.class));
+      IS_SIGNATURE = lookup.findStatic(InlineCache.class, "isSignature",
+          MethodType.methodType(boolean.class, Class[].class, Object.class, Object[].class));
+      MEGAMORPHIC_CALL = lookup.findStatic(Caller.class, "call",
+          MethodType.methodType(Object.class, Object.class, String.class, Object[].class));
+    } catch (Exception e) {
+      throw new ExceptionInInitializerError(e);
+    }
+  }
+
+  private final String method;
+  private int receiverTypes;
+
+  public InlineCache(String method, MethodType type) {
+    super(type);
+    this.method = method;
+
+    setTarget(adapt(FALLBACK.bindTo(this)));
+  }
+
+  private static boolean isReceiverType(Class<?> type, Object receiver) {
+    return receiver != null && receiver.getClass() == type;
+  }
+
+  private static boolean isSignature(Class<?>[] types, Object receiver, Object[] args) {
+    if (receiver == null || receiver.getClass() != types[0])
+      return false;
+
+    for (int i = 0, length = args.length; i < length; i++) {
+      Object arg = args[i];
+      if ((arg == null ? null : arg.getClass()) != types[i + 1])
+        return false;
+    }
+    return true;
+  }
+
+  /**
+   * Adapts a handle of the shape (receiver, args[]) to the type of this call site, which
+   * omits the argument array for nullary calls.
+   */
+  private MethodHandle adapt(MethodHandle invoker) {
+    if (type().parameterCount() == 1)
+      invoker = MethodHandles.insertArguments(invoker, 1, (Object) Caller.EMPTY_ARRAY);
+
+    return invoker.asType(type().changeReturnType(invoker.type().returnType()));
+  }
+
+  /**
+   * Overloaded methods are resolved by argument types too, so they can only be cached
+   * against the exact receiver and argument classes seen.
+   */
+  private MethodHandle guardFor(Class<?> receiverType, Object[] args) {
+    if (!OverloadResolver.isOverloaded(receiverType, method, args.length))
+      return IS_RECEIVER_TYPE.bindTo(receiverType);
+
+    Class<?>[] types = new Class<?>[args.length + 1];
+    types[0] = receiverType;
+    for (int i = 0, length = args.length; i < length; i++) {
+      Object arg = args[i];
+      types[i + 1] = arg == null ? null : arg.getClass();
+    }
+    return adapt(IS_SIGNATURE.bindTo(types));
+  }
+
+  @SuppressWarnings("unused") // Invoked via method handle on cache misses.
+  private Object fallback(Object receiver, Object[] args) throws Throwable {
+    if (receiver == null)
+      return null;
+
+    Class<?> receiverType = receiver.getClass();
+    Method toCall = Caller.resolveMethod(receiverType, method, args);
+    MethodHandle invoker = MethodHandles.lookup().unreflect(toCall)
+        .asFixedArity()
+        .asSpreader(Object[].class, args.length)
+        .asType(INVOKER_TYPE);
+
+    synchronized (this) {
+      if (receiverTypes < MAX_POLYMORPHISM) {
+        receiverTypes++;
+        setTarget(MethodHandles.guardWithTest(guardFor(receiverType, args),
+            adapt(invoker),
+            getTarget()));
+      } else
+        setTarget(adapt(MethodHandles.insertArguments(MEGAMORPHIC_CALL, 1, method)));
+    }
+
+    return invoker.invokeWithArguments(receiver, args);
+  }
+}
@@ -0,0 +1,73 @@
+package loop.runtime;
+
+import java.util.AbstractList;
+import java.util.RandomAccess;
+
+/**
+ * An immutable list of evenly spaced ints from {@code from} to {@code to} inclusive, whose
+ * elements are computed on demand rather than stored, so even very long ranges cost
+ * nothing up front. Ranges that count down have a negative step.
+ */
+public class IntRange extends AbstractList<Integer> implements RandomAccess {
+  private final int from;
+  private final int step;
+  private final int size;
+
+  public IntRange(int from, int to) {
+    this(from, to, from <= to ? 1 : -1);
+  }
+
+  public IntRange(int from, int to, int step) {
+    if (step == 0)
+      throw new IllegalArgumentException("Range step cannot be zero");
+
+    this.from = from;
+    this.step = step;
+
+    // A step that heads away from the end gives an empty range.
+    long last = ((long) to - from) / step;
+    if (last < 0)
+      this.size = 0;
+    else if (last >= Integer.MAX_VALUE)
+      throw new IllegalArgumentException("Range too large: " + from + " - " + to);
+    else
+      this.size = (int) last + 1;
+  }
+
+  @Override
+  public Integer get(int index) {
+    if (index < 0 || index >= size)
+      throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+
+    // May wrap around in between, but always lands back inside the range.
+    return from + index * step;
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public boolean contains(Object o) {
+    return indexOf(o) >= 0;
+  }
+
+  @Override
+  public int indexOf(Object o) {
+    if (!(o instanceof Integer))
+      return -1;
+
+    long distance = (long) (Integer) o - from;
+    if (distance % step != 0)
+      return -1;
+
+    long index = distance / step;
+    return index >= 0 && index < size ? (int) index : -1;
+  }
+
+  @Override
+  public int lastIndexOf(Object o) {
+    return indexOf(o);
+  }
+}
@@ -0,0 +1,83 @@
+package loop.runtime;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.ConstantCallSite;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+/**
+ * Bootstraps for invokedynamic call sites.
+ * <p/>
+ * Every Loop function is emitted as a static method taking and returning Object, so once
+ * the owning module is known at compile time, each call site can be linked exactly once,
+ * directly to its target. This avoids the Class.forName, cache-key and reflective invoke
+ * that {@link Caller#callStatic(String, String, Object[])} performs on every call.
+ * <p/>
+ * Dynamic method calls on receiver objects instead get their own {@link InlineCache}.
+ */
+public class Linker {
+  private static final MethodHandle CALL_STATIC;
+
+  static {
+    try {
+      CALL_STATIC = MethodHandles.lookup().findStatic(Caller.class, "callStatic",
+          MethodType.methodType(Object.class, String.class, String.class, Object[].class));
+    } catch (Exception e) {
+      throw new ExceptionInInitializerError(e);
+    }
+  }
+
+  /**
+   * Links a call to the Loop function {@code name} declared in {@code module}. The call
+   * site passes its {@code arity} arguments on the stack, just as the function takes them,
+   * so they are only packed into an Object[] if it can't be found and has to be called
+   * reflectively after all.
+   */
+  public static CallSite bootstrap(MethodHandles.Lookup caller,
+                                   String name,
+                                   MethodType type,
+                                   String module,
+                                   int arity) throws Throwable {
+    MethodHandle target = resolve(caller, module, name, arity);
+    if (target == null) {
+      // Leave it to the reflective caller to resolve (and report errors) at runtime.
+      target = MethodHandles.insertArguments(CALL_STATIC, 0, module, name);
+      if (arity == 0)
+        target = MethodHandles.insertArguments(target, 0, (Object) Caller.EMPTY_ARRAY);
+      else
+        target = target.asCollector(Object[].class, arity);
+    }
+
+    return new ConstantCallSite(target.asType(type));
+  }
+
+  /**
+   * Links a dynamic method call on a receiver object (typically Java interop) to a
+   * fresh inline cache, so that each call site learns its own receiver types.
+   */
+  public static CallSite bootstrapDynamic(MethodHandles.Lookup caller,
+                                          String name,
+                                          MethodType type) {
+    return new InlineCache(name, type);
+  }
+
+  private static MethodHandle resolve(MethodHandles.Lookup caller,
+                                      String module,
+                                      String name,
+                                      int arity) {
+    Class<?> owner = caller.lookupClass();
+    try {
+      if (!owner.getName().equals(module))
+        owner = Class.forName(module, true, owner.getClassLoader());
+
+      return caller.findStatic(owner, name, MethodType.genericMethodType(arity));
+    } catch (ClassNotFoundException e) {
+      return null;
+    } catch (NoSuchMethodException e) {
+      return null;
+    } catch (IllegalAccessException e) {
+      return null;
+    }
+  }
+}
@@ -0,0 +1,23 @@
+package loop.runtime;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * The queue of messages waiting for a channel's actor.
+ */
+interface Mailbox {
+  boolean offer(Object message);
+
+  /**
+   * The oldest message, or null if there is none that has finished arriving yet.
+   */
+  Object poll();
+
+  boolean isEmpty();
+
+  /**
+   * For channels whose messages may be taken by several threads at once.
+   */
+  static class Shared extends ConcurrentLinkedQueue<Object> implements Mailbox {
+  }
+}
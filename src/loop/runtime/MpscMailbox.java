@@ -0,0 +1,122 @@
+package loop.runtime;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A mailbox for serialized channels, which have any number of senders but only ever one
+ * thread taking messages out. Senders claim a sequence number each with a single atomic
+ * increment and write their message into that slot of a chain of fixed size arrays, adding
+ * an array to the end when they run past it. So unlike a linked queue there is no node per
+ * message, and seeing if the mailbox is empty is a single lookup.
+ * <p/>
+ * Only one thread may {@link #poll} at a time, but any may check {@link #isEmpty}.
+ */
+class MpscMailbox implements Mailbox {
+  private static final int CHUNK_SIZE = 1024;
+
+  private static class Chunk {
+    // The sequence number of the first slot.
+    final long base;
+    final AtomicReferenceArray<Object> slots = new AtomicReferenceArray<Object>(CHUNK_SIZE);
+    volatile Chunk next;
+
+    Chunk(long base) {
+      this.base = base;
+    }
+  }
+
+  // Padded out to a cache line of its own, so that senders contending on the tail don't also
+  // slow down the reader moving the head, and vice versa.
+  @SuppressWarnings("unused")
+  private static class PaddedSequence extends AtomicLong {
+    long p1, p2, p3, p4, p5, p6, p7;
+  }
+
+  // The next sequence number to hand out to a sender, and the next one to read.
+  private final PaddedSequence tail = new PaddedSequence();
+  private final PaddedSequence head = new PaddedSequence();
+
+  // The furthest chunk that a sender has written to. It never gets ahead of a sequence
+  // number that has been claimed, so senders who read it before claiming theirs can search
+  // forward. Nor does it go back, which would keep chunks that have been read reachable.
+  private final AtomicReference<Chunk> lastChunk = new AtomicReference<Chunk>();
+
+  // The chunk that the head is in, or the one before if the head has just filled it.
+  private volatile Chunk headChunk;
+
+  MpscMailbox() {
+    headChunk = new Chunk(0);
+    lastChunk.set(headChunk);
+  }
+
+  @Override
+  public boolean offer(Object message) {
+    Chunk chunk = lastChunk.get();
+    long sequence = tail.getAndIncrement();
+
+    while (sequence >= chunk.base + CHUNK_SIZE) {
+      Chunk next = chunk.next;
+      if (next == null) {
+        synchronized (chunk) {
+          if ((next = chunk.next) == null)
+            chunk.next = next = new Chunk(chunk.base + CHUNK_SIZE);
+        }
+      }
+      chunk = next;
+    }
+
+    // A full write, so that a reader going idle either sees this message or is seen by the
+    // sender when it goes on to schedule the channel.
+    chunk.slots.set((int) (sequence - chunk.base), message);
+
+    Chunk last;
+    while ((last = lastChunk.get()).base < chunk.base && !lastChunk.compareAndSet(last, chunk));
+    return true;
+  }
+
+  @Override
+  public Object poll() {
+    long sequence = head.get();
+    Chunk chunk = headChunk;
+    if (sequence == chunk.base + CHUNK_SIZE) {
+      if ((chunk = chunk.next) == null)
+        return null;
+      headChunk = chunk;
+    }
+
+    int slot = (int) (sequence - chunk.base);
+    Object message = chunk.slots.get(slot);
+    if (message != null) {
+      // Let go of the message so that the mailbox doesn't keep it alive. The head moves on
+      // first, so that anyone who sees the slot empty will also see that it has been read.
+      head.lazySet(sequence + 1);
+      chunk.slots.lazySet(slot, null);
+    }
+    return message;
+  }
+
+  /**
+   * Whether the next message has yet to arrive. A thread other than the reader may see a
+   * message that has just been read as still there, but never misses one that isn't.
+   */
+  @Override
+  public boolean isEmpty() {
+    while (true) {
+      long sequence = head.get();
+      Chunk chunk = headChunk;
+      if (sequence < chunk.base)
+        return false;
+      if (sequence == chunk.base + CHUNK_SIZE && (chunk = chunk.next) == null)
+        return true;
+
+      if (chunk.slots.get((int) (sequence - chunk.base)) != null)
+        return false;
+
+      // The slot is only really empty if it wasn't just read.
+      if (head.get() == sequence)
+        return true;
+    }
+  }
+}
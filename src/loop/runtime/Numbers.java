@@ -0,0 +1,354 @@
+package loop.runtime;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+
+/**
+ * Loop's numeric tower. Each operand is given a small type tag, and the pair of tags
+ * indexes a table of the type both are promoted to before the operation, so mixed
+ * arithmetic like {@code 1 + 2L} or {@code 1 + 2.0} just works. Integer and long
+ * arithmetic that overflows is promoted to Long or BigInteger respectively, rather
+ * than silently wrapping around.
+ */
+public class Numbers {
+  static final int NONE = -1;
+  static final int INTEGER = 0;
+  static final int LONG = 1;
+  static final int FLOAT = 2;
+  static final int DOUBLE = 3;
+  static final int BIG_INTEGER = 4;
+  static final int BIG_DECIMAL = 5;
+
+  private static final int TYPES = 6;
+
+  // Indexed by (left * TYPES + right).
+  private static final int[] PROMOTIONS = {
+      /* INTEGER     */ INTEGER, LONG, FLOAT, DOUBLE, BIG_INTEGER, BIG_DECIMAL,
+      /* LONG        */ LONG, LONG, FLOAT, DOUBLE, BIG_INTEGER, BIG_DECIMAL,
+      /* FLOAT       */ FLOAT, FLOAT, FLOAT, DOUBLE, BIG_DECIMAL, BIG_DECIMAL,
+      /* DOUBLE      */ DOUBLE, DOUBLE, DOUBLE, DOUBLE, BIG_DECIMAL, BIG_DECIMAL,
+      /* BIG_INTEGER */ BIG_INTEGER, BIG_INTEGER, BIG_DECIMAL, BIG_DECIMAL, BIG_INTEGER, BIG_DECIMAL,
+      /* BIG_DECIMAL */ BIG_DECIMAL, BIG_DECIMAL, BIG_DECIMAL, BIG_DECIMAL, BIG_DECIMAL, BIG_DECIMAL,
+  };
+
+  /**
+   * Thrown by the exact int operations used in int-specialized functions, so that they
+   * can fall back to the generic (promoting) version of the function. Preallocated, as it
+   * is only ever used for control flow.
+   */
+  public static class Overflow extends RuntimeException {
+    static final Overflow INSTANCE = new Overflow();
+
+    private Overflow() {
+      super("integer overflow");
+    }
+
+    @Override
+    public synchronized Throwable fillInStackTrace() {
+      return this;
+    }
+  }
+
+  static int tag(Object value) {
+    if (value == null)
+      return NONE;
+
+    // All of these are final, so an exact class check is as good as instanceof.
+    Class<?> type = value.getClass();
+    if (type == Integer.class)
+      return INTEGER;
+    if (type == Long.class)
+      return LONG;
+    if (type == Double.class)
+      return DOUBLE;
+    if (type == Float.class)
+      return FLOAT;
+    if (type == BigInteger.class)
+      return BIG_INTEGER;
+    if (type == BigDecimal.class)
+      return BIG_DECIMAL;
+    return NONE;
+  }
+
+  /**
+   * Returns the type tag both operands should be promoted to, or {@link #NONE} if either
+   * is not a number.
+   */
+  static int promote(Object arg0, Object arg1) {
+    int left = tag(arg0), right = tag(arg1);
+    if (left == NONE || right == NONE)
+      return NONE;
+    return PROMOTIONS[left * TYPES + right];
+  }
+
+  static Object add(int type, Object arg0, Object arg1) {
+    switch (type) {
+      case INTEGER: {
+        int x = (Integer) arg0, y = (Integer) arg1, result = x + y;
+        if (((x ^ result) & (y ^ result)) < 0)
+          return (long) x + y;
+        return result;
+      }
+      case LONG: {
+        long x = longValue(arg0), y = longValue(arg1), result = x + y;
+        if (((x ^ result) & (y ^ result)) < 0)
+          return BigInteger.valueOf(x).add(BigInteger.valueOf(y));
+        return result;
+      }
+      case FLOAT:
+        return ((Number) arg0).floatValue() + ((Number) arg1).floatValue();
+      case DOUBLE:
+        return doubleValue(arg0) + doubleValue(arg1);
+      default:
+        return bigAdd(type, arg0, arg1);
+    }
+  }
+
+  static Object subtract(int type, Object arg0, Object arg1) {
+    switch (type) {
+      case INTEGER: {
+        int x = (Integer) arg0, y = (Integer) arg1, result = x - y;
+        if (((x ^ y) & (x ^ result)) < 0)
+          return (long) x - y;
+        return result;
+      }
+      case LONG: {
+        long x = longValue(arg0), y = longValue(arg1), result = x - y;
+        if (((x ^ y) & (x ^ result)) < 0)
+          return BigInteger.valueOf(x).subtract(BigInteger.valueOf(y));
+        return result;
+      }
+      case FLOAT:
+        return ((Number) arg0).floatValue() - ((Number) arg1).floatValue();
+      case DOUBLE:
+        return doubleValue(arg0) - doubleValue(arg1);
+      default:
+        return bigSubtract(type, arg0, arg1);
+    }
+  }
+
+  static Object multiply(int type, Object arg0, Object arg1) {
+    switch (type) {
+      case INTEGER: {
+        long result = (long) (Integer) arg0 * (Integer) arg1;
+        if ((int) result != result)
+          return result;
+        return (int) result;
+      }
+      case LONG: {
+        long x = longValue(arg0), y = longValue(arg1), result = x * y;
+
+        // Only operands wider than 31 bits can overflow a long.
+        if (((Math.abs(x) | Math.abs(y)) >>> 31 != 0)
+            && ((y != 0 && result / y != x) || (x == Long.MIN_VALUE && y == -1)))
+          return BigInteger.valueOf(x).multiply(BigInteger.valueOf(y));
+        return result;
+      }
+      case FLOAT:
+        return ((Number) arg0).floatValue() * ((Number) arg1).floatValue();
+      case DOUBLE:
+        return doubleValue(arg0) * doubleValue(arg1);
+      default:
+        return bigMultiply(type, arg0, arg1);
+    }
+  }
+
+  static Object divide(int type, Object arg0, Object arg1) {
+    switch (type) {
+      case INTEGER: {
+        int x = (Integer) arg0, y = (Integer) arg1;
+        if (x == Integer.MIN_VALUE && y == -1)
+          return -(long) x;
+        return x / y;
+      }
+      case LONG: {
+        long x = longValue(arg0), y = longValue(arg1);
+        if (x == Long.MIN_VALUE && y == -1)
+          return BigInteger.valueOf(x).negate();
+        return x / y;
+      }
+      case FLOAT:
+        return ((Number) arg0).floatValue() / ((Number) arg1).floatValue();
+      case DOUBLE:
+        return doubleValue(arg0) / doubleValue(arg1);
+      default:
+        return bigDivide(type, arg0, arg1);
+    }
+  }
+
+  static Object remainder(int type, Object arg0, Object arg1) {
+    switch (type) {
+      case INTEGER:
+        return (Integer) arg0 % (Integer) arg1;
+      case LONG:
+        return longValue(arg0) % longValue(arg1);
+      case FLOAT:
+        return ((Number) arg0).floatValue() % ((Number) arg1).floatValue();
+      case DOUBLE:
+        return doubleValue(arg0) % doubleValue(arg1);
+      default:
+        return bigRemainder(type, arg0, arg1);
+    }
+  }
+
+  /**
+   * Greater-than comparisons simply swap their operands, since promotion is symmetric.
+   * Like Java, any comparison with NaN is false.
+   */
+  static boolean lesserThan(int type, Object arg0, Object arg1) {
+    switch (type) {
+      case INTEGER:
+        return (Integer) arg0 < (Integer) arg1;
+      case LONG:
+        return longValue(arg0) < longValue(arg1);
+      case FLOAT:
+        return ((Number) arg0).floatValue() < ((Number) arg1).floatValue();
+      case DOUBLE:
+        return doubleValue(arg0) < doubleValue(arg1);
+      default:
+        return bigCompare(type, arg0, arg1) < 0;
+    }
+  }
+
+  static boolean lesserThanOrEqual(int type, Object arg0, Object arg1) {
+    switch (type) {
+      case INTEGER:
+        return (Integer) arg0 <= (Integer) arg1;
+      case LONG:
+        return longValue(arg0) <= longValue(arg1);
+      case FLOAT:
+        return ((Number) arg0).floatValue() <= ((Number) arg1).floatValue();
+      case DOUBLE:
+        return doubleValue(arg0) <= doubleValue(arg1);
+      default:
+        return bigCompare(type, arg0, arg1) <= 0;
+    }
+  }
+
+  /**
+   * Equality by value once promoted, so that 20L equals 20. Like Java, NaN equals nothing.
+   */
+  static boolean equal(int type, Object arg0, Object arg1) {
+    switch (type) {
+      case INTEGER:
+        return ((Integer) arg0).intValue() == (Integer) arg1;
+      case LONG:
+        return longValue(arg0) == longValue(arg1);
+      case FLOAT:
+        return ((Number) arg0).floatValue() == ((Number) arg1).floatValue();
+      case DOUBLE:
+        return doubleValue(arg0) == doubleValue(arg1);
+      default:
+        return isFinite(arg0) && isFinite(arg1) && bigCompare(type, arg0, arg1) == 0;
+    }
+  }
+
+  private static boolean isFinite(Object value) {
+    if (value instanceof Double || value instanceof Float) {
+      double x = ((Number) value).doubleValue();
+      return !Double.isNaN(x) && !Double.isInfinite(x);
+    }
+    return true;
+  }
+
+  // Unboxing by exact class avoids a megamorphic call to Number.
+
+  private static long longValue(Object value) {
+    return value.getClass() == Integer.class ? (long) (Integer) value : (Long) value;
+  }
+
+  private static double doubleValue(Object value) {
+    Class<?> type = value.getClass();
+    if (type == Double.class)
+      return (Double) value;
+    if (type == Integer.class)
+      return (Integer) value;
+    if (type == Long.class)
+      return (Long) value;
+    return ((Number) value).doubleValue();
+  }
+
+  // Arbitrary precision arithmetic is kept out of line, so the common cases stay small
+  // enough to be inlined.
+
+  private static Object bigAdd(int type, Object arg0, Object arg1) {
+    if (type == BIG_INTEGER)
+      return toBigInteger(arg0).add(toBigInteger(arg1));
+    return toBigDecimal(arg0).add(toBigDecimal(arg1));
+  }
+
+  private static Object bigSubtract(int type, Object arg0, Object arg1) {
+    if (type == BIG_INTEGER)
+      return toBigInteger(arg0).subtract(toBigInteger(arg1));
+    return toBigDecimal(arg0).subtract(toBigDecimal(arg1));
+  }
+
+  private static Object bigMultiply(int type, Object arg0, Object arg1) {
+    if (type == BIG_INTEGER)
+      return toBigInteger(arg0).multiply(toBigInteger(arg1));
+    return toBigDecimal(arg0).multiply(toBigDecimal(arg1));
+  }
+
+  private static Object bigDivide(int type, Object arg0, Object arg1) {
+    if (type == BIG_INTEGER)
+      return toBigInteger(arg0).divide(toBigInteger(arg1));
+    return toBigDecimal(arg0).divide(toBigDecimal(arg1));
+  }
+
+  private static Object bigRemainder(int type, Object arg0, Object arg1) {
+    if (type == BIG_INTEGER)
+      return toBigInteger(arg0).remainder(toBigInteger(arg1));
+    return toBigDecimal(arg0).remainder(toBigDecimal(arg1));
+  }
+
+  private static int bigCompare(int type, Object arg0, Object arg1) {
+    if (type == BIG_INTEGER)
+      return toBigInteger(arg0).compareTo(toBigInteger(arg1));
+    return toBigDecimal(arg0).compareTo(toBigDecimal(arg1));
+  }
+
+  private static BigInteger toBigInteger(Object value) {
+    if (value instanceof BigInteger)
+      return (BigInteger) value;
+    return BigInteger.valueOf(((Number) value).longValue());
+  }
+
+  private static BigDecimal toBigDecimal(Object value) {
+    if (value instanceof BigDecimal)
+      return (BigDecimal) value;
+    if (value instanceof BigInteger)
+      return new BigDecimal((BigInteger) value);
+    if (value instanceof Double || value instanceof Float)
+      return BigDecimal.valueOf(((Number) value).doubleValue());
+    return BigDecimal.valueOf(((Number) value).longValue());
+  }
+
+  // Exact int arithmetic for int-specialized functions.
+
+  public static int addExact(int x, int y) {
+    int result = x + y;
+    if (((x ^ result) & (y ^ result)) < 0)
+      throw Overflow.INSTANCE;
+    return result;
+  }
+
+  public static int subtractExact(int x, int y) {
+    int result = x - y;
+    if (((x ^ y) & (x ^ result)) < 0)
+      throw Overflow.INSTANCE;
+    return result;
+  }
+
+  public static int multiplyExact(int x, int y) {
+    long result = (long) x * y;
+    if ((int) result != result)
+      throw Overflow.INSTANCE;
+    return (int) result;
+  }
+
+  public static int divideExact(int x, int y) {
+    if (x == Integer.MIN_VALUE && y == -1)
+      throw Overflow.INSTANCE;
+    return x / y;
+  }
+}
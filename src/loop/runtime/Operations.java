@@ -1,7 +1,5 @@
 package loop.runtime;
 
-import java.math.BigDecimal;
-import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
@@ -13,8 +11,9 @@ public class Operations {
 
   @SuppressWarnings("unchecked")
   public static Object plus(Object arg0, Object arg1) {
-    if (arg0 instanceof Integer) {
-      return (Integer)arg0 + (Integer)arg1;
+    int type = Numbers.promote(arg0, arg1);
+    if (type != Numbers.NONE) {
+      return Numbers.add(type, arg0, arg1);
     } else if (arg0 instanceof String) {
       return ((String)arg0) + arg1;
     } else if (arg0 instanceof Collection) {
@@ -25,18 +24,8 @@ public class Operations {
       out.addAll(right);
 
       return out;
-    } else if (arg0 instanceof Float) {
-      return (Float)arg0 + (Float)arg1;
-    } else if (arg0 instanceof Double) {
-      return (Double)arg0 + (Double)arg1;
-    } else if (arg0 instanceof Long) {
-      return (Long)arg0 + (Long)arg1;
     } else if (arg1 instanceof String) {
       return arg0.toString() + arg1;
-    } else if (arg0 instanceof BigInteger) {
-      return ((BigInteger)arg0).add((BigInteger) arg1);
-    } else if (arg0 instanceof BigDecimal) {
-      return ((BigDecimal)arg0).add((BigDecimal) arg1);
     } else if (arg0 == null)
       return arg1;
 
@@ -47,8 +36,9 @@ public class Operations {
 
   @SuppressWarnings("unchecked")
   public static Object minus(Object arg0, Object arg1) {
-    if (arg0 instanceof Integer) {
-      return (Integer)arg0 - (Integer)arg1;
+    int type = Numbers.promote(arg0, arg1);
+    if (type != Numbers.NONE) {
+      return Numbers.subtract(type, arg0, arg1);
     } else if (arg0 instanceof Collection) {
       Collection left = (Collection) arg0;
       Collection right = (Collection) arg1;
@@ -57,16 +47,6 @@ public class Operations {
       out.removeAll(right);
 
       return out;
-    } else if (arg0 instanceof Float) {
-      return (Float)arg0 - (Float)arg1;
-    } else if (arg0 instanceof Double) {
-      return (Double)arg0 - (Double)arg1;
-    } else if (arg0 instanceof Long) {
-      return (Long)arg0 - (Long)arg1;
-    } else if (arg0 instanceof BigInteger) {
-      return ((BigInteger)arg0).subtract((BigInteger) arg1);
-    } else if (arg0 instanceof BigDecimal) {
-      return ((BigDecimal)arg0).subtract((BigDecimal) arg1);
     }
 
     throw new IllegalArgumentException("Cannot subtract objects of type " + arg0.getClass() + " and " + arg1.getClass());
@@ -74,8 +54,9 @@ public class Operations {
 
   @SuppressWarnings("unchecked")
   public static Object multiply(Object arg0, Object arg1) {
-    if (arg0 instanceof Integer) {
-      return (Integer)arg0 * (Integer)arg1;
+    int type = Numbers.promote(arg0, arg1);
+    if (type != Numbers.NONE) {
+      return Numbers.multiply(type, arg0, arg1);
     } else if (arg0 instanceof Collection) {
       Collection left = (Collection) arg0;
       int times = (Integer)arg1;
@@ -85,143 +66,102 @@ public class Operations {
       }
 
       return out;
-    } else if (arg0 instanceof Float) {
-      return (Float)arg0 * (Float)arg1;
-    } else if (arg0 instanceof Double) {
-      return (Double)arg0 * (Double)arg1;
-    } else if (arg0 instanceof Long) {
-      return (Long)arg0 * (Long)arg1;
-    } else if (arg0 instanceof BigInteger) {
-      return ((BigInteger)arg0).multiply((BigInteger) arg1);
-    } else if (arg0 instanceof BigDecimal) {
-      return ((BigDecimal)arg0).multiply((BigDecimal) arg1);
     }
 
     throw new IllegalArgumentException("Cannot subtract objects of type " + arg0.getClass() + " and " + arg1.getClass());
   }
 
   public static Object divide(Object arg0, Object arg1) {
-    if (arg0 instanceof Integer) {
-      return (Integer)arg0 / (Integer)arg1;
-    } else if (arg0 instanceof Float) {
-      return (Float)arg0 / (Float)arg1;
-    } else if (arg0 instanceof Double) {
-      return (Double)arg0 / (Double)arg1;
-    } else if (arg0 instanceof Long) {
-      return (Long)arg0 / (Long)arg1;
-    } else if (arg0 instanceof BigInteger) {
-      return ((BigInteger)arg0).divide((BigInteger) arg1);
-    } else if (arg0 instanceof BigDecimal) {
-      return ((BigDecimal)arg0).divide((BigDecimal) arg1);
-    }
+    int type = Numbers.promote(arg0, arg1);
+    if (type != Numbers.NONE)
+      return Numbers.divide(type, arg0, arg1);
 
     throw new IllegalArgumentException("Cannot subtract objects of type " + arg0.getClass() + " and " + arg1.getClass());
   }
 
   public static Object remainder(Object arg0, Object arg1) {
-    if (arg0 instanceof Integer) {
-      return (Integer)arg0 % (Integer)arg1;
-    } else if (arg0 instanceof Float) {
-      return (Float)arg0 % (Float)arg1;
-    } else if (arg0 instanceof Double) {
-      return (Double)arg0 % (Double)arg1;
-    } else if (arg0 instanceof Long) {
-      return (Long)arg0 % (Long)arg1;
-    } else if (arg0 instanceof BigInteger) {
-      return ((BigInteger)arg0).remainder((BigInteger) arg1);
-    } else if (arg0 instanceof BigDecimal) {
-      return ((BigDecimal)arg0).remainder((BigDecimal) arg1);
-    }
+    int type = Numbers.promote(arg0, arg1);
+    if (type != Numbers.NONE)
+      return Numbers.remainder(type, arg0, arg1);
 
     throw new IllegalArgumentException("Cannot subtract objects of type " + arg0.getClass() + " and " + arg1.getClass());
   }
 
+  // Comparisons are also available unboxed, for conditions that are only ever branched on.
+
   public static Boolean lesserThan(Object arg0, Object arg1) {
-    if (arg0 instanceof Integer) {
-      return (Integer)arg0 < (Integer)arg1;
-    } else if (arg0 instanceof Float) {
-      return (Float)arg0 < (Float)arg1;
-    } else if (arg0 instanceof Double) {
-      return (Double)arg0 < (Double)arg1;
-    } else if (arg0 instanceof Long) {
-      return (Long)arg0 < (Long)arg1;
-    } else if (arg0 instanceof BigInteger) {
-      return ((BigInteger)arg0).compareTo((BigInteger) arg1) == -1;
-    } else if (arg0 instanceof BigDecimal) {
-      return ((BigDecimal)arg0).compareTo((BigDecimal) arg1) == -1;
-    }
+    return isLesserThan(arg0, arg1);
+  }
+
+  public static Boolean greaterThan(Object arg0, Object arg1) {
+    return isGreaterThan(arg0, arg1);
+  }
+
+  public static Boolean greaterThanOrEqual(Object arg0, Object arg1) {
+    return isGreaterThanOrEqual(arg0, arg1);
+  }
+
+  public static Boolean lesserThanOrEqual(Object arg0, Object arg1) {
+    return isLesserThanOrEqual(arg0, arg1);
+  }
+
+  public static Boolean equal(Object arg0, Object arg1) {
+    return isEqual(arg0, arg1);
+  }
+
+  public static Boolean notEqual(Object arg0, Object arg1) {
+    return isNotEqual(arg0, arg1);
+  }
+
+  public static boolean isLesserThan(Object arg0, Object arg1) {
+    int type = Numbers.promote(arg0, arg1);
+    if (type != Numbers.NONE)
+      return Numbers.lesserThan(type, arg0, arg1);
 
     throw new IllegalArgumentException("Cannot compare objects of type " + arg0.getClass() + " and " + arg1.getClass());
   }
 
-  public static Boolean greaterThan(Object arg0, Object arg1) {
-    if (arg0 instanceof Integer) {
-      return (Integer)arg0 > (Integer)arg1;
-    } else if (arg0 instanceof Float) {
-      return (Float)arg0 > (Float)arg1;
-    } else if (arg0 instanceof Double) {
-      return (Double)arg0 > (Double)arg1;
-    } else if (arg0 instanceof Long) {
-      return (Long)arg0 > (Long)arg1;
-    } else if (arg0 instanceof BigInteger) {
-      return ((BigInteger)arg0).compareTo((BigInteger) arg1) == 1;
-    } else if (arg0 instanceof BigDecimal) {
-      return ((BigDecimal)arg0).compareTo((BigDecimal) arg1) == 1;
-    }
+  public static boolean isGreaterThan(Object arg0, Object arg1) {
+    int type = Numbers.promote(arg0, arg1);
+    if (type != Numbers.NONE)
+      return Numbers.lesserThan(type, arg1, arg0);
 
     throw new IllegalArgumentException("Cannot compare objects of type " + arg0.getClass() + " and " + arg1.getClass());
   }
 
-  public static Boolean greaterThanOrEqual(Object arg0, Object arg1) {
-    if (arg0 instanceof Integer) {
-      return (Integer)arg0 >= (Integer)arg1;
-    } else if (arg0 instanceof Float) {
-      return (Float)arg0 >= (Float)arg1;
-    } else if (arg0 instanceof Double) {
-      return (Double)arg0 >= (Double)arg1;
-    } else if (arg0 instanceof Long) {
-      return (Long)arg0 >= (Long)arg1;
-    } else if (arg0 instanceof BigInteger) {
-      return ((BigInteger)arg0).compareTo((BigInteger) arg1) >= 0;
-    } else if (arg0 instanceof BigDecimal) {
-      return ((BigDecimal)arg0).compareTo((BigDecimal) arg1) >= 0;
-    }
+  public static boolean isGreaterThanOrEqual(Object arg0, Object arg1) {
+    int type = Numbers.promote(arg0, arg1);
+    if (type != Numbers.NONE)
+      return Numbers.lesserThanOrEqual(type, arg1, arg0);
 
     throw new IllegalArgumentException("Cannot compare objects of type " + arg0.getClass() + " and " + arg1.getClass());
   }
 
-  public static Boolean lesserThanOrEqual(Object arg0, Object arg1) {
-    if (arg0 instanceof Integer) {
-      return (Integer)arg0 <= (Integer)arg1;
-    } else if (arg0 instanceof Float) {
-      return (Float)arg0 <= (Float)arg1;
-    } else if (arg0 instanceof Double) {
-      return (Double)arg0 <= (Double)arg1;
-    } else if (arg0 instanceof Long) {
-      return (Long)arg0 <= (Long)arg1;
-    } else if (arg0 instanceof BigInteger) {
-      return ((BigInteger)arg0).compareTo((BigInteger) arg1) <= 0;
-    } else if (arg0 instanceof BigDecimal) {
-      return ((BigDecimal)arg0).compareTo((BigDecimal) arg1) <= 0;
-    }
+  public static boolean isLesserThanOrEqual(Object arg0, Object arg1) {
+    int type = Numbers.promote(arg0, arg1);
+    if (type != Numbers.NONE)
+      return Numbers.lesserThanOrEqual(type, arg0, arg1);
 
     throw new IllegalArgumentException("Cannot compare objects of type " + arg0.getClass() + " and " + arg1.getClass());
   }
 
-  public static Boolean equal(Object arg0, Object arg1) {
-    if (arg0 == null) {
-      return arg1 == null;
+  public static boolean isEqual(Object arg0, Object arg1) {
+    if (arg0 == null || arg1 == null) {
+      return arg0 == arg1;
+    }
+
+    // Numbers of different types are compared by value, as arithmetic may widen either.
+    if (arg0.getClass() != arg1.getClass()) {
+      int type = Numbers.promote(arg0, arg1);
+      if (type != Numbers.NONE)
+        return Numbers.equal(type, arg0, arg1);
     }
 
     return arg0.equals(arg1);
   }
 
-  public static Boolean notEqual(Object arg0, Object arg1) {
-    if (arg0 == null) {
-      return arg1 != null;
-    }
-
-    return !arg0.equals(arg1);
+  public static boolean isNotEqual(Object arg0, Object arg1) {
+    return !isEqual(arg0, arg1);
   }
 
   public static Boolean and(Object arg0, Object arg1) {
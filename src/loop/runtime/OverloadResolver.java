@@ -0,0 +1,222 @@
+package loop.runtime;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Member;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Picks the most specific overload of a Java method or constructor for a given set of
+ * runtime arguments. Loop passes every value boxed, so a boxed argument is treated as its
+ * primitive and may widen to a larger primitive parameter (an Integer matches int, long,
+ * float and double, preferring int). Resolutions are cached against the runtime classes
+ * of the arguments, so different argument types at the same call never share an overload.
+ */
+class OverloadResolver {
+  private static final Map<Class<?>, Class<?>> PRIMITIVES = new HashMap<Class<?>, Class<?>>();
+  private static final Map<Class<?>, Class<?>> WRAPPERS = new HashMap<Class<?>, Class<?>>();
+  private static final Map<Class<?>, Class<?>[]> WIDENINGS = new HashMap<Class<?>, Class<?>[]>();
+
+  static {
+    PRIMITIVES.put(Boolean.class, boolean.class);
+    PRIMITIVES.put(Byte.class, byte.class);
+    PRIMITIVES.put(Short.class, short.class);
+    PRIMITIVES.put(Character.class, char.class);
+    PRIMITIVES.put(Integer.class, int.class);
+    PRIMITIVES.put(Long.class, long.class);
+    PRIMITIVES.put(Float.class, float.class);
+    PRIMITIVES.put(Double.class, double.class);
+
+    for (Map.Entry<Class<?>, Class<?>> entry : PRIMITIVES.entrySet()) {
+      WRAPPERS.put(entry.getValue(), entry.getKey());
+    }
+
+    // Primitive widening conversions (JLS 5.1.2).
+    WIDENINGS.put(byte.class, new Class<?>[]{short.class, int.class, long.class, float.class,
+        double.class});
+    WIDENINGS.put(short.class, new Class<?>[]{int.class, long.class, float.class, double.class});
+    WIDENINGS.put(char.class, new Class<?>[]{int.class, long.class, float.class, double.class});
+    WIDENINGS.put(int.class, new Class<?>[]{long.class, float.class, double.class});
+    WIDENINGS.put(long.class, new Class<?>[]{float.class, double.class});
+    WIDENINGS.put(float.class, new Class<?>[]{double.class});
+  }
+
+  private static volatile ConcurrentMap<Signature, Member> resolved =
+      new ConcurrentHashMap<Signature, Member>();
+
+  static void reset() {
+    resolved = new ConcurrentHashMap<Signature, Member>();
+  }
+
+  /**
+   * Returns the most specific public (or failing that, declared) method named {@code name}
+   * on {@code owner} that accepts {@code args}, or null if there is none.
+   */
+  static Method resolve(Class<?> owner, String name, Object[] args) {
+    Signature signature = new Signature(owner, name, args);
+    Method method = (Method) resolved.get(signature);
+    if (method != null)
+      return method;
+
+    method = mostSpecific(owner.getMethods(), name, args);
+    if (method == null)
+      method = mostSpecific(owner.getDeclaredMethods(), name, args);
+    if (method == null)
+      return null;
+
+    if (!method.isAccessible())
+      method.setAccessible(true);
+
+    resolved.putIfAbsent(signature, method);
+    return method;
+  }
+
+  /**
+   * Returns the most specific public constructor of {@code owner} that accepts
+   * {@code args}, or null if there is none.
+   */
+  static Constructor<?> resolveConstructor(Class<?> owner, Object[] args) {
+    Signature signature = new Signature(owner, "<init>", args);
+    Constructor<?> constructor = (Constructor<?>) resolved.get(signature);
+    if (constructor != null)
+      return constructor;
+
+    Constructor<?> best = null;
+    for (Constructor<?> candidate : owner.getConstructors()) {
+      if (isApplicable(candidate.getParameterTypes(), args)
+          && (best == null
+          || isMoreSpecific(candidate.getParameterTypes(), best.getParameterTypes())))
+        best = candidate;
+    }
+
+    if (best != null)
+      resolved.putIfAbsent(signature, best);
+    return best;
+  }
+
+  /**
+   * Returns true if the choice of method named {@code name} on {@code owner} depends on
+   * the types of its {@code arity} arguments, rather than just on its name.
+   */
+  static boolean isOverloaded(Class<?> owner, String name, int arity) {
+    int count = 0;
+    for (Method method : owner.getMethods()) {
+      if (!method.isBridge()
+          && method.getName().equals(name)
+          && method.getParameterTypes().length == arity)
+        count++;
+    }
+    return count > 1;
+  }
+
+  private static Method mostSpecific(Method[] candidates, String name, Object[] args) {
+    Method best = null;
+    for (Method candidate : candidates) {
+      if (!candidate.getName().equals(name) || !isApplicable(candidate.getParameterTypes(), args))
+        continue;
+
+      if (best == null)
+        best = candidate;
+      else {
+        boolean candidateWins = isMoreSpecific(candidate.getParameterTypes(),
+            best.getParameterTypes());
+        boolean bestWins = isMoreSpecific(best.getParameterTypes(),
+            candidate.getParameterTypes());
+
+        // Prefer the real method over a compiler-generated bridge with the same parameters.
+        if ((candidateWins && !bestWins) || (candidateWins && best.isBridge()))
+          best = candidate;
+      }
+    }
+    return best;
+  }
+
+  private static boolean isApplicable(Class<?>[] parameterTypes, Object[] args) {
+    if (parameterTypes.length != args.length)
+      return false;
+
+    for (int i = 0, length = parameterTypes.length; i < length; i++) {
+      Class<?> parameterType = parameterTypes[i];
+      Object arg = args[i];
+
+      if (arg == null) {
+        if (parameterType.isPrimitive())
+          return false;
+      } else if (parameterType.isPrimitive()) {
+        Class<?> primitive = PRIMITIVES.get(arg.getClass());
+        if (primitive == null || !(primitive == parameterType || widens(primitive, parameterType)))
+          return false;
+      } else if (!parameterType.isAssignableFrom(arg.getClass()))
+        return false;
+    }
+    return true;
+  }
+
+  /**
+   * Returns true if every parameter in {@code these} is at least as specific as the
+   * corresponding parameter in {@code those}.
+   */
+  private static boolean isMoreSpecific(Class<?>[] these, Class<?>[] those) {
+    for (int i = 0, length = these.length; i < length; i++) {
+      Class<?> type = these[i], other = those[i];
+      if (type == other)
+        continue;
+
+      if (type.isPrimitive()) {
+        if (other.isPrimitive() ? !widens(type, other) : !other.isAssignableFrom(WRAPPERS.get(type)))
+          return false;
+      } else if (other.isPrimitive() || !other.isAssignableFrom(type))
+        return false;
+    }
+    return true;
+  }
+
+  private static boolean widens(Class<?> from, Class<?> to) {
+    Class<?>[] widenings = WIDENINGS.get(from);
+    if (widenings == null)
+      return false;
+
+    for (Class<?> widening : widenings) {
+      if (widening == to)
+        return true;
+    }
+    return false;
+  }
+
+  private static class Signature {
+    private final Class<?> owner;
+    private final String name;
+    private final Class<?>[] argTypes;
+    private final int hashCode;
+
+    private Signature(Class<?> owner, String name, Object[] args) {
+      this.owner = owner;
+      this.name = name;
+      this.argTypes = new Class<?>[args.length];
+      for (int i = 0, length = args.length; i < length; i++) {
+        Object arg = args[i];
+        argTypes[i] = arg == null ? null : arg.getClass();
+      }
+
+      this.hashCode = 31 * (31 * owner.hashCode() + name.hashCode()) + Arrays.hashCode(argTypes);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (!(o instanceof Signature)) return false;
+
+      Signature that = (Signature) o;
+      return owner == that.owner && name.equals(that.name) && Arrays.equals(argTypes, that.argTypes);
+    }
+
+    @Override
+    public int hashCode() {
+      return hashCode;
+    }
+  }
+}
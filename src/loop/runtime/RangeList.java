@@ -0,0 +1,78 @@
+package loop.runtime;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * The list a range literal evaluates to. It reads straight from an {@link IntRange} until
+ * it is first changed, and only then copies the range into an ArrayList of its own, so
+ * ranges that are only read never box their elements.
+ */
+public class RangeList extends AbstractList<Object> implements RandomAccess {
+  private List<Object> elements;
+  private boolean copied;
+
+  @SuppressWarnings("unchecked")
+  public RangeList(IntRange range) {
+    this.elements = (List) range;
+  }
+
+  private List<Object> mutable() {
+    if (!copied) {
+      elements = new ArrayList<Object>(elements);
+      copied = true;
+    }
+    return elements;
+  }
+
+  @Override
+  public Object get(int index) {
+    return elements.get(index);
+  }
+
+  @Override
+  public int size() {
+    return elements.size();
+  }
+
+  @Override
+  public boolean contains(Object o) {
+    return elements.contains(o);
+  }
+
+  @Override
+  public int indexOf(Object o) {
+    return elements.indexOf(o);
+  }
+
+  @Override
+  public int lastIndexOf(Object o) {
+    return elements.lastIndexOf(o);
+  }
+
+  @Override
+  public Object set(int index, Object element) {
+    return mutable().set(index, element);
+  }
+
+  @Override
+  public void add(int index, Object element) {
+    mutable().add(index, element);
+    modCount++;
+  }
+
+  @Override
+  public Object remove(int index) {
+    Object removed = mutable().remove(index);
+    modCount++;
+    return removed;
+  }
+
+  @Override
+  protected void removeRange(int fromIndex, int toIndex) {
+    mutable().subList(fromIndex, toIndex).clear();
+    modCount++;
+  }
+}
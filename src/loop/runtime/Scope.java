@@ -35,5 +35,11 @@ public interface Scope {
 
   FunctionDecl resolveNamespacedFunction(String name, String namespace);
 
+  /**
+   * The scope the given function was declared in, whether this one or that of a module it
+   * requires, or null if neither.
+   */
+  Scope scopeOf(FunctionDecl function);
+
   ClassDecl resolveAliasedType(String alias, String type);
 }
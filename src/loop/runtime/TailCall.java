@@ -0,0 +1,20 @@
+package loop.runtime;
+
+/**
+ * What functions that tail call one another in a cycle return instead of making the call:
+ * which function in their group to call next and with what arguments. The bridge that any
+ * other caller enters the group through makes one of these and keeps bouncing between the
+ * functions until something else comes back, so the group runs in constant stack and only
+ * allocates once per call from outside it.
+ */
+public final class TailCall {
+  // The number of the function to call next within its group.
+  public int target;
+
+  // Big enough for the arguments of any function in the group.
+  public final Object[] arguments;
+
+  public TailCall(int arity) {
+    this.arguments = new Object[arity];
+  }
+}
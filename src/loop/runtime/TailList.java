@@ -0,0 +1,46 @@
+package loop.runtime;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * The tail of a list from some offset on, as bound by {@code [x:xs]} patterns. Unlike
+ * {@link List#subList}, the tail of a tail is a view straight onto the original list rather
+ * than onto the view, so walking down a list recursively never stacks up wrappers and
+ * every {@link #get} is a single indirection.
+ */
+public class TailList extends AbstractList<Object> implements RandomAccess {
+  private final List<?> list;
+  private final int offset;
+
+  private TailList(List<?> list, int offset) {
+    this.list = list;
+    this.offset = offset;
+  }
+
+  public static List<?> of(Object list, int offset) {
+    if (list instanceof TailList) {
+      TailList tail = (TailList) list;
+      return new TailList(tail.list, tail.offset + offset);
+    }
+    if (list instanceof RandomAccess)
+      return new TailList((List<?>) list, offset);
+
+    // Indexing into anything else is slow anyway.
+    List<?> sequential = (List<?>) list;
+    return sequential.subList(offset, sequential.size());
+  }
+
+  @Override
+  public Object get(int index) {
+    if (index < 0 || index >= size())
+      throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+    return list.get(offset + index);
+  }
+
+  @Override
+  public int size() {
+    return Math.max(0, list.size() - offset);
+  }
+}
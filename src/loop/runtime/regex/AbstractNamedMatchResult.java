@@ -0,0 +1,51 @@
+package loop.runtime.regex;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Named group lookups over a plain match result. Names are resolved through the index the
+ * pattern built when it was compiled, so the result itself holds nothing but the pattern
+ * and the underlying match, and copies nothing out of it until asked to.
+ */
+abstract class AbstractNamedMatchResult implements NamedMatchResult {
+
+  abstract NamedPattern parentPattern();
+
+  public List<String> orderedGroups() {
+    ArrayList<String> groups = new ArrayList<String>(groupCount());
+    for (int i = 1; i <= groupCount(); i++) {
+      groups.add(group(i));
+    }
+    return groups;
+  }
+
+  public Map<String, String> namedGroups() {
+    Map<String, String> result = new LinkedHashMap<String, String>();
+    for (String groupName : parentPattern().groupNames()) {
+      result.put(groupName, group(groupName));
+    }
+    return result;
+  }
+
+  public String group(String groupName) {
+    return group(groupIndex(groupName));
+  }
+
+  public int start(String groupName) {
+    return start(groupIndex(groupName));
+  }
+
+  public int end(String groupName) {
+    return end(groupIndex(groupName));
+  }
+
+  private int groupIndex(String groupName) {
+    int index = parentPattern().groupIndex(groupName);
+    if (index == -1)
+      throw new IllegalArgumentException("No group with name <" + groupName + ">");
+    return index;
+  }
+}
@@ -1,9 +1,5 @@
 package loop.runtime.regex;
 
-import java.util.ArrayList;
-import java.util.LinkedHashMap;
-import java.util.List;
-import java.util.Map;
 import java.util.regex.MatchResult;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -11,19 +7,11 @@ import java.util.regex.Pattern;
 /**
  * Taken from http://code.google.com/p/named-regexp/
  */
-public class NamedMatcher implements NamedMatchResult {
+public class NamedMatcher extends AbstractNamedMatchResult {
 
   private Matcher matcher;
   private NamedPattern parentPattern;
 
-  NamedMatcher() {
-  }
-
-  NamedMatcher(NamedPattern parentPattern, MatchResult matcher) {
-    this.parentPattern = parentPattern;
-    this.matcher = (Matcher) matcher;
-  }
-
   NamedMatcher(NamedPattern parentPattern, CharSequence input) {
     this.parentPattern = parentPattern;
     this.matcher = parentPattern.pattern().matcher(input);
@@ -37,6 +25,11 @@ public class NamedMatcher implements NamedMatchResult {
     return parentPattern;
   }
 
+  @Override
+  NamedPattern parentPattern() {
+    return parentPattern;
+  }
+
   public NamedMatcher usePattern(NamedPattern newPattern) {
     this.parentPattern = newPattern;
     matcher.usePattern(newPattern.pattern());
@@ -58,7 +51,7 @@ public class NamedMatcher implements NamedMatchResult {
   }
 
   public NamedMatchResult toMatchResult() {
-    return new NamedMatcher(this.parentPattern, matcher.toMatchResult());
+    return new Snapshot(parentPattern, matcher.toMatchResult());
   }
 
   public boolean find() {
@@ -94,34 +87,6 @@ public class NamedMatcher implements NamedMatchResult {
     return matcher.groupCount();
   }
 
-  public List<String> orderedGroups() {
-    ArrayList<String> groups = new ArrayList<String>();
-    for (int i = 1; i <= groupCount(); i++) {
-      groups.add(group(i));
-    }
-    return groups;
-  }
-
-  public String group(String groupName) {
-    return group(groupIndex(groupName));
-  }
-
-  public Map<String, String> namedGroups() {
-    Map<String, String> result = new LinkedHashMap<String, String>();
-
-    for (int i = 1; i <= groupCount(); i++) {
-      String groupName = parentPattern.groupNames().get(i-1);
-      String groupValue = matcher.group(i);
-      result.put(groupName, groupValue);
-    }
-
-    return result;
-  }
-
-  private int groupIndex(String groupName) {
-    return parentPattern.groupNames().indexOf(groupName) + 1;
-  }
-
   public int start() {
     return matcher.start();
   }
@@ -130,10 +95,6 @@ public class NamedMatcher implements NamedMatchResult {
     return matcher.start(group);
   }
 
-  public int start(String groupName) {
-    return start(groupIndex(groupName));
-  }
-
   public int end() {
     return matcher.end();
   }
@@ -142,10 +103,6 @@ public class NamedMatcher implements NamedMatchResult {
     return matcher.end(group);
   }
 
-  public int end(String groupName) {
-    return end(groupIndex(groupName));
-  }
-
   public NamedMatcher region(int start, int end) {
     matcher.region(start, end);
     return this;
@@ -205,4 +162,49 @@ public class NamedMatcher implements NamedMatchResult {
     return matcher.toString();
   }
 
+  /**
+   * A match that has been set aside, which later matches don't change.
+   */
+  private static class Snapshot extends AbstractNamedMatchResult {
+    private final NamedPattern parentPattern;
+    private final MatchResult result;
+
+    Snapshot(NamedPattern parentPattern, MatchResult result) {
+      this.parentPattern = parentPattern;
+      this.result = result;
+    }
+
+    @Override
+    NamedPattern parentPattern() {
+      return parentPattern;
+    }
+
+    public int start() {
+      return result.start();
+    }
+
+    public int start(int group) {
+      return result.start(group);
+    }
+
+    public int end() {
+      return result.end();
+    }
+
+    public int end(int group) {
+      return result.end(group);
+    }
+
+    public String group() {
+      return result.group();
+    }
+
+    public String group(int group) {
+      return result.group(group);
+    }
+
+    public int groupCount() {
+      return result.groupCount();
+    }
+  }
 }
@@ -1,8 +1,10 @@
 package loop.runtime.regex;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
-import java.util.regex.Matcher;
+import java.util.Map;
 import java.util.regex.Pattern;
 
 /**
@@ -10,12 +12,16 @@ import java.util.regex.Pattern;
  */
 public class NamedPattern {
 
-  private static final Pattern NAMED_GROUP_PATTERN = Pattern.compile("\\(\\?<(\\w+)>");
-
   private Pattern pattern;
   private String namedPattern;
   private List<String> groupNames;
 
+  // Group numbers by name, counting unnamed capturing groups too.
+  private Map<String, Integer> groupIndex;
+
+  // Matchers that are reused by each thread, see reusableMatcher().
+  private final ThreadLocal<NamedMatcher> matchers = new ThreadLocal<NamedMatcher>();
+
   public static NamedPattern compile(String regex) {
     return new NamedPattern(regex, 0);
   }
@@ -24,10 +30,14 @@ public class NamedPattern {
     return new NamedPattern(regex, flags);
   }
 
-  private NamedPattern(String regex, int i) {
+  private NamedPattern(String regex, int flags) {
     namedPattern = regex;
-    pattern = buildStandardPattern(regex);
-    groupNames = extractGroupNames(regex);
+
+    List<String> names = new ArrayList<String>();
+    Map<String, Integer> index = new HashMap<String, Integer>();
+    pattern = Pattern.compile(parse(regex, names, index), flags);
+    groupNames = Collections.unmodifiableList(names);
+    groupIndex = index;
   }
 
   public int flags() {
@@ -38,6 +48,20 @@ public class NamedPattern {
     return new NamedMatcher(this, input);
   }
 
+  /**
+   * A matcher over the given input which this pattern hands out again to later calls on the
+   * same thread, so everything needed from a match must be read before matching again.
+   */
+  public NamedMatcher reusableMatcher(CharSequence input) {
+    NamedMatcher matcher = matchers.get();
+    if (matcher == null) {
+      matcher = new NamedMatcher(this, input);
+      matchers.set(matcher);
+      return matcher;
+    }
+    return matcher.reset(input);
+  }
+
   Pattern pattern() {
     return pattern;
   }
@@ -54,6 +78,15 @@ public class NamedPattern {
     return groupNames;
   }
 
+  /**
+   * The number of the named group, for use with {@link NamedMatcher#group(int)}, or -1 if
+   * there is no group by that name.
+   */
+  public int groupIndex(String groupName) {
+    Integer index = groupIndex.get(groupName);
+    return index == null ? -1 : index;
+  }
+
   public String[] split(CharSequence input, int limit) {
     return pattern.split(input, limit);
   }
@@ -66,17 +99,71 @@ public class NamedPattern {
     return namedPattern;
   }
 
-  static List<String> extractGroupNames(String namedPattern) {
-    List<String> groupNames = new ArrayList<String>();
-    Matcher matcher = NAMED_GROUP_PATTERN.matcher(namedPattern);
-    while(matcher.find()) {
-      groupNames.add(matcher.group(1));
+  /**
+   * Rewrites named groups {@code (?<name>...)} to plain ones in a single pass, collecting
+   * the names and their group numbers as it goes. Escapes, quotes and character classes are
+   * skipped over so that parentheses in them are not mistaken for groups.
+   */
+  static String parse(String namedPattern, List<String> groupNames,
+                      Map<String, Integer> groupIndex) {
+    StringBuilder standard = new StringBuilder(namedPattern.length());
+    int length = namedPattern.length(), groups = 0, classDepth = 0;
+
+    for (int i = 0; i < length; i++) {
+      char c = namedPattern.charAt(i);
+
+      if (c == '\\' && i + 1 < length) {
+        if (namedPattern.charAt(i + 1) == 'Q') {
+          int end = namedPattern.indexOf("\\E", i + 2);
+          end = end == -1 ? length : end + 2;
+          standard.append(namedPattern, i, end);
+          i = end - 1;
+        } else {
+          standard.append(c).append(namedPattern.charAt(++i));
+        }
+        continue;
+      }
+
+      if (c == '[') {
+        classDepth++;
+
+        // A ] straight after the opening bracket is just a character.
+        standard.append(c);
+        if (i + 1 < length && namedPattern.charAt(i + 1) == '^')
+          standard.append(namedPattern.charAt(++i));
+        if (i + 1 < length && namedPattern.charAt(i + 1) == ']')
+          standard.append(namedPattern.charAt(++i));
+        continue;
+      }
+      if (c == ']' && classDepth > 0)
+        classDepth--;
+      else if (c == '(' && classDepth == 0) {
+        if (i + 1 < length && namedPattern.charAt(i + 1) == '?') {
+          int nameEnd = i + 3;
+          while (nameEnd < length && isWordChar(namedPattern.charAt(nameEnd)))
+            nameEnd++;
+
+          // (?<name> but not the (?<= and (?<! lookbehinds.
+          if (i + 2 < length && namedPattern.charAt(i + 2) == '<'
+              && nameEnd > i + 3 && nameEnd < length && namedPattern.charAt(nameEnd) == '>') {
+            String name = namedPattern.substring(i + 3, nameEnd);
+            groupNames.add(name);
+            if (!groupIndex.containsKey(name))
+              groupIndex.put(name, groups + 1);
+            groups++;
+            standard.append('(');
+            i = nameEnd;
+            continue;
+          }
+        } else
+          groups++;
+      }
+      standard.append(c);
     }
-    return groupNames;
+    return standard.toString();
   }
 
-  static Pattern buildStandardPattern(String namedPattern) {
-    return Pattern.compile(NAMED_GROUP_PATTERN.matcher(namedPattern).replaceAll("("));
+  private static boolean isWordChar(char c) {
+    return c == '_' || (c < 128 && Character.isLetterOrDigit(c));
   }
-
 }
@@ -794,6 +794,28 @@ public class AsmCodeEmitterTest extends LoopTest {
     assertEquals(2, generated.getDeclaredMethod("sum", Object.class).invoke(null, false));
   }
 
+  @Test
+  public final void emitConstantOnceWhenInlined() throws Exception {
+    Parser parser = new LexprParser(new Tokenizer(
+        "defaults() ->\n  [1, 2, 3]\n\nmain() ->\n  [defaults(), defaults()]\n").tokenize());
+    Unit unit = parser.script(file);
+    unit.reduceAll();
+
+    Class<?> generated = new AsmCodeEmitter(unit).write(unit);
+
+    // Inspect.
+    inspect(generated);
+
+    int constants = 0;
+    for (Field field : generated.getDeclaredFields()) {
+      if (field.getName().startsWith("$constant$"))
+        constants++;
+    }
+    assertEquals(1, constants);
+    assertEquals(Arrays.asList(Arrays.asList(1, 2, 3), Arrays.asList(1, 2, 3)),
+        generated.getDeclaredMethod("main").invoke(null));
+  }
+
   private static void inspect(Class<?> generated) {
     System.out.println(generated);
     System.out.println("Fields:");
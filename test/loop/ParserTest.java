@@ -74,6 +74,14 @@ public class ParserTest {
         "output = x * 2 for x in list if x < 10");
   }
 
+  @Test
+  public final void parallelListComprehensions() {
+    compare("(= (comput (. output)) (comput (. x) (* (. 2)) (cpr for parallel x in (comput (. list)))))",
+        "output = x * 2 for parallel x in list");
+    compare("(= (comput (. output)) (comput (. parallel) (cpr for parallel in (comput (. list)))))",
+        "output = parallel for parallel in list");
+  }
+
   @Test
   public final void messyListComprehensions() {
     compare("(comput (. (list (comput (. x) (/ (. 2)) (cpr for x in (comput (. (list (comput (. 1)) (comput (. 2)) (comput (. 3)))))" +
@@ -11,9 +11,9 @@ public class ReducerTest {
 
   @Test
   public final void simpleExpr() {
-    compare("(= x (comput 1 (+ 2)))", "x = 1 + 2");
-    compare("(comput 1 (+ 2) (+ 3))", "1 + 2 + 3");
-    compare("(comput 1 (+ 2) (+ (. 3 triple)))", "1 + 2 + 3.triple");
+    compare("(= x (comput y (+ 2)))", "x = y + 2");
+    compare("(comput y (+ 2) (+ 3))", "y + 2 + 3");
+    compare("(comput y (+ 2) (+ (. 3 triple)))", "y + 2 + 3.triple");
 
     compare("(comput (. \" hi there! \" to_s) (- 1))", "\" hi there! \".to_s - 1 # yoyoy");
 
@@ -23,6 +23,20 @@ public class ReducerTest {
     compare("(. @a b c)", "@a.b.c");
   }
 
+  @Test
+  public final void constantFolding() {
+    compare("(= x 3)", "x = 1 + 2");
+    compare("(comput 86400 (* days))", "60 * 60 * 24 * days");
+    compare("(comput 3 (+ (. 3 triple)))", "1 + 2 + 3.triple");
+    compare("(comput 14 (+ y))", "2 * (3 + 4) + y");
+    compare("'a12'", "'a' + 1 + 2");
+    compare("2147483648", "2147483647 + 1");
+
+    // Left alone to fail at runtime.
+    compare("(comput 1 (/ 0))", "1 / 0");
+    compare("(comput 'a' (* 2))", "'a' * 2");
+  }
+
   @Test
   public final void listIndexing() {
     compare("(. my_list [1])", "my_list[1]");
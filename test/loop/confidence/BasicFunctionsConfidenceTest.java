@@ -9,6 +9,7 @@ import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -159,6 +160,40 @@ public class BasicFunctionsConfidenceTest extends LoopTest {
     assertEquals(true, Loop.run("test/loop/confidence/doubles_2.loop"));
   }
 
+  @Test
+  public final void primitiveArithmetic() {
+    assertEquals(Arrays.<Object>asList(Arrays.asList(Arrays.asList(2, 10, 26)),
+        true, 8.0, 13, 2, true, false, 36),
+        Loop.run("test/loop/confidence/primitive_arithmetic.loop"));
+  }
+
+  @Test
+  public final void intFunctions() {
+    assertEquals(Arrays.<Object>asList(6765, 50005000, 111, 9, 56, 2L, 2),
+        Loop.run("test/loop/confidence/int_functions.loop"));
+  }
+
+  @Test
+  public final void numericTower() {
+    assertEquals(Arrays.<Object>asList(2147483648L, new BigInteger("9903520300447984150353281023"),
+        3L, 1.5, 3.0, 5000050000L, 55, 2, 1L, true, true),
+        Loop.run("test/loop/confidence/numeric_tower.loop"));
+  }
+
+  @Test
+  public final void intSpecializationResumesAfterOverflow() {
+    assertEquals(Arrays.asList(2432902008176640000L, Collections.nCopies(100, 120), 120,
+        479001600, 6227020800L, new BigInteger("51090942171709440000")),
+        Loop.run("test/loop/confidence/overflow_cooldown.loop"));
+  }
+
+  @Test
+  public final void shortCircuitAndOr() {
+    assertEquals(Arrays.<Object>asList(true, true, false, "small", "small", "big",
+        Arrays.asList(Arrays.asList(0, 1, 2)), "yes", true),
+        Loop.run("test/loop/confidence/short_circuit.loop"));
+  }
+
   @Test
   public final void bigIntegerArithmetic() {
     assertEquals(true, Loop.run("test/loop/confidence/big_ints.loop"));
@@ -306,6 +341,46 @@ public class BasicFunctionsConfidenceTest extends LoopTest {
     assertEquals("Prime, Optimus", Loop.run("test/loop/confidence/split_various_selective_3.loop"));
   }
 
+  @Test
+  public final void localsReusedAcrossRulesAndExpressions() {
+    Map<String, Object> none = new HashMap<String, Object>();
+    none.put("none", Arrays.asList("none", "none"));
+
+    assertEquals(Arrays.asList(Arrays.asList(5, 2, 2), Arrays.asList(Arrays.asList(2, 4, 6)),
+        Arrays.asList("hello", 11), 2,
+        Arrays.asList(Arrays.asList("none", 0, 2), Arrays.asList(Arrays.asList("none", "none")),
+            none),
+        Arrays.asList(Arrays.asList("a b", 0, 2), Arrays.asList("a", 1)),
+        Arrays.asList(Arrays.asList(2, 3))),
+        Loop.run("test/loop/confidence/reused_locals.loop"));
+  }
+
+  @Test
+  public final void inlinedFunctions() {
+    assertEquals(Arrays.asList("hi bob, hi bob", "hi annhi  and you", "LOOP!", 5, 7,
+        Arrays.asList(6, 7), true, 1.5),
+        Loop.run("test/loop/confidence/inlined_functions.loop"));
+  }
+
+  @Test
+  public final void inlinedCallsInsideListsAreNotTailCalls() {
+    assertEquals(Arrays.asList(Arrays.asList("done")),
+        Loop.run("test/loop/confidence/inlined_non_tail_calls.loop"));
+  }
+
+  @Test
+  public final void mutuallyRecursiveFunctionsAreNotInlined() {
+    assertEquals(Arrays.asList(Arrays.asList("done")),
+        Loop.run("test/loop/confidence/inlined_trampoline_calls.loop"));
+  }
+
+  @Test
+  public final void stringPatternSlicesComparedInPlace() {
+    assertEquals(Arrays.asList("get /index", "post /form", "other PUT", "get /about", "DELETE /x",
+        "unknown", Arrays.asList("a", "1"), Arrays.asList("name", "loop"), Arrays.asList("k", "=v")),
+        Loop.run("test/loop/confidence/string_pattern_slices.loop"));
+  }
+
   @Test
   public final void localVarsShouldBeScopedOverFunctionRefs() {
     assertEquals("Prime, Optimus", Loop.run("test/loop/confidence/local_vars_scope.loop"));
@@ -362,6 +437,22 @@ public class BasicFunctionsConfidenceTest extends LoopTest {
     assertEquals(map, Loop.run("test/loop/confidence/literal_pattern_matching.loop"));
   }
 
+  @Test
+  public final void listWalksByOffset() {
+    assertEquals(Arrays.asList(Arrays.asList(4, 3, 2, 1), 100000,
+        Arrays.asList(Arrays.asList(1, 2, 3), Arrays.asList(2, 3), Arrays.asList(3)),
+        Arrays.asList(3, 2, 1), Arrays.asList(2, 4, 6), Arrays.asList(2, 1, 0)),
+        Loop.run("test/loop/confidence/list_offsets.loop"));
+  }
+
+  @Test
+  public final void switchedLiteralPatternMatching() {
+    assertEquals(Arrays.asList("pong", "empty put", "put", "get", "delete", "Aa", "BB",
+        "unknown", "unknown", "one", "three", "thousand", "minus five", "other", "other",
+        "other", "zero", "gap", "four", "gap"),
+        Loop.run("test/loop/confidence/switched_pattern_matching.loop"));
+  }
+
   @Test
   public final void wildcardPatternMatchingGuarded1() {
     Map<String, String> map = new HashMap<String, String>();
@@ -420,6 +511,12 @@ public class BasicFunctionsConfidenceTest extends LoopTest {
     assertEquals(map, Loop.run("test/loop/confidence/regex_pattern_matching_guarded_3.loop"));
   }
 
+  @Test
+  public final void regexPatternMatchingRecursive() {
+    assertEquals(Arrays.asList("12", "3", "456"),
+        Loop.run("test/loop/confidence/regex_pattern_matching_recursive.loop"));
+  }
+
   @Test
   public final void patternMatchingMultipleArg1() {
     Map<String, String> map = new HashMap<String, String>();
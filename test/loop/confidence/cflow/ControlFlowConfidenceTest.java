@@ -77,6 +77,12 @@ public class ControlFlowConfidenceTest extends LoopTest {
         Loop.run("test/loop/confidence/cflow/except_6.loop"));
   }
 
+  @Test
+  public final void mutualTailCallsRunInConstantStack() {
+    assertEquals(Arrays.asList(true, true, false, Arrays.asList(false, true), 4),
+        Loop.run("test/loop/confidence/cflow/mutual_tail_calls.loop"));
+  }
+
   @Test(expected = LoopCompileException.class)
   public final void exceptionHandlerDeclWithErroneousExceptionClause() {
     assertEquals(true, Loop.run("test/loop/confidence/cflow/except_2.loop"));
@@ -31,6 +31,23 @@ public class ChannelsConfidenceTest extends LoopTest {
     Loop.run("test/loop/confidence/concurrency/channels_counter.loop");
   }
 
+  @Test
+  public final void counterSerialOnVirtualThreads() {
+    // Falls back to the global worker pool on JVMs without virtual threads.
+    Loop.run("test/loop/confidence/concurrency/channels_virtual.loop");
+  }
+
+  @Test
+  public final void printerBounded() {
+    // Prints some of 1 to 10, depending on how fast the printer drains its mailbox.
+    Loop.run("test/loop/confidence/concurrency/channels_bounded.loop");
+  }
+
+  @Test
+  public final void counterBatched() {
+    Loop.run("test/loop/confidence/concurrency/channels_batched.loop");
+  }
+
   @Test
   public final void pingpongBurst() throws InterruptedException {
     // Counts upto 10 on global worker pool.
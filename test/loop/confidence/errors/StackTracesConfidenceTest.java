@@ -4,6 +4,11 @@ import loop.Loop;
 import loop.LoopTest;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.fail;
 
 /**
@@ -23,6 +28,21 @@ public class StackTracesConfidenceTest extends LoopTest {
     }
   }
 
+  @Test
+  public final void inlinedFunctionsStillTraced() {
+    try {
+      Loop.run("test/loop/confidence/errors/stack_traces_inlined.loop");
+      fail();
+    } catch (Exception e) {
+      List<String> functions = new ArrayList<String>();
+      for (StackTraceElement element : e.getStackTrace()) {
+        if (element.getClassName().equals("_default"))
+          functions.add(element.getMethodName() + ":" + element.getLineNumber());
+      }
+      assertEquals(Arrays.asList("func3:3", "func2:6", "main:9"), functions);
+    }
+  }
+
   @Test
   public final void bestMatches() {
     try {
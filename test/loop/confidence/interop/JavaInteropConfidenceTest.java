@@ -53,6 +53,12 @@ public class JavaInteropConfidenceTest extends LoopTest {
         Loop.run("test/loop/confidence/interop/main_args.loop", new String[] { "arg1", "arg2" }));
   }
 
+  @Test
+  public final void megamorphicJavaCall() {
+    assertEquals(Arrays.asList("1", "two", "3", "4.0", "[5, 6]", "true", "7", "eight"),
+        Loop.run("test/loop/confidence/interop/megamorphic_call_1.loop"));
+  }
+
   @Test
   public final void normalFunctionCall() {
     assertEquals("hello", Loop.run("test/loop/confidence/interop/postfix_call_1.loop"));
@@ -68,6 +74,12 @@ public class JavaInteropConfidenceTest extends LoopTest {
     assertEquals("hello", Loop.run("test/loop/confidence/interop/overloaded_call_1.loop"));
   }
 
+  @Test
+  public final void callOverloadedJavaMethodWithDifferentArgTypes() {
+    assertEquals(Arrays.<Object>asList("1a2.5trueb3", 2, 2.5, 2L),
+        Loop.run("test/loop/confidence/interop/overloaded_call_2.loop"));
+  }
+
   @Test
   public final void callAsLoopOverridingJava() {
     assertEquals("HELLO", Loop.run("test/loop/confidence/interop/postfix_call_3.loop"));
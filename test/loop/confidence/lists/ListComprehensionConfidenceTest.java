@@ -22,6 +22,43 @@ public class ListComprehensionConfidenceTest extends LoopTest {
     assertEquals(Arrays.asList(Arrays.asList(3, 4, 5)), Loop.run("test/loop/confidence/lists/ranges.loop"));
   }
 
+  @Test
+  public final void rangeComprehensions() {
+    assertEquals(Arrays.asList(Arrays.asList(Arrays.asList(2, 4, 6, 8, 10)),
+        Arrays.asList(Arrays.asList(5, 4, 3, 2, 1)), Arrays.asList(Arrays.asList(7, 8)),
+        Arrays.asList(6, 5, 4, 3), 10000000,
+        Arrays.asList(Arrays.asList(2147483646, 2147483647))),
+        Loop.run("test/loop/confidence/lists/ranges_2.loop"));
+  }
+
+  @Test
+  public final void rangesCanBeChanged() {
+    assertEquals(Arrays.asList(Arrays.asList(true, Arrays.asList(1, 2, 3, 4)), 4,
+        Arrays.asList(2, 4, 6)), Loop.run("test/loop/confidence/lists/ranges_mutable.loop"));
+  }
+
+  @Test
+  public final void fusedAndSharedComprehensions() {
+    assertEquals(Arrays.asList(Arrays.asList(7, 9, 11), Arrays.asList(3, 6, 9, 12),
+        Arrays.asList(1, 2, 50, 80, 30), Arrays.asList(2, 4, 6), Arrays.asList(), true,
+        Arrays.asList(true, Arrays.asList(3, 9), Arrays.asList(1))),
+        Loop.run("test/loop/confidence/lists/fused.loop"));
+  }
+
+  @Test
+  public final void parallelComprehensions() {
+    assertEquals(Arrays.asList(Arrays.asList(14994, 14997, 15000), Arrays.asList(3, 6, 11),
+        Arrays.asList(2, 4, 6, 8, 10), Arrays.asList(7, 8), true),
+        Loop.run("test/loop/confidence/lists/parallel.loop"));
+  }
+
+  @Test
+  public final void constantListsAndMaps() {
+    assertEquals(Arrays.asList(Arrays.asList(1, 2, 3, 4), Arrays.asList(1, 2, 3, 4),
+        Arrays.asList(1, 2, 3), Arrays.asList(2, 4, 6), 86400),
+        Loop.run("test/loop/confidence/lists/constants.loop"));
+  }
+
   @Test
   public final void identityComprehension() {
     assertEquals(Arrays.asList(10, 20, 30), Loop.run("test/loop/confidence/lists/projection.loop"));
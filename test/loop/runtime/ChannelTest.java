@@ -0,0 +1,181 @@
+package loop.runtime;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ChannelTest {
+  private static volatile CountDownLatch started;
+  private static volatile CountDownLatch gate;
+  private static final BlockingQueue<Object> received = new LinkedBlockingQueue<Object>();
+  private static final AtomicInteger counted = new AtomicInteger();
+
+  // Holds up the first message until the gate opens, so that the rest pile up in the mailbox.
+  public static Object gated(Object message) throws InterruptedException {
+    started.countDown();
+    gate.await();
+    received.add(message);
+    return null;
+  }
+
+  // Like gated() but records a copy of each batch, as the channel reuses them.
+  @SuppressWarnings("unchecked")
+  public static Object gatedBatches(Object messages) throws InterruptedException {
+    started.countDown();
+    gate.await();
+    received.add(new ArrayList<Object>((List<Object>) messages));
+    return null;
+  }
+
+  public static Object count(Object message) {
+    counted.incrementAndGet();
+    return null;
+  }
+
+  @Before
+  public final void pre() {
+    counted.set(0);
+    started = new CountDownLatch(1);
+    gate = new CountDownLatch(1);
+    received.clear();
+  }
+
+  private static Channel channel(int capacity, Channel.Overflow overflow) throws Exception {
+    Channel channel = new Channel("gated", new Closure(ChannelTest.class.getName(), "gated"),
+        false, 0, false, capacity, overflow);
+    channel.receive(0);
+    assertTrue(started.await(5, TimeUnit.SECONDS));
+    return channel;
+  }
+
+  private static List<Object> drain(int count) throws InterruptedException {
+    List<Object> messages = new ArrayList<Object>();
+    for (int i = 0; i < count; i++) {
+      messages.add(received.poll(5, TimeUnit.SECONDS));
+    }
+    return messages;
+  }
+
+  @Test
+  public final void dropNewestTurnsAwayMessagesOverCapacity() throws Exception {
+    Channel channel = channel(2, Channel.Overflow.DROP_NEWEST);
+    assertTrue(channel.offer(1));
+    assertTrue(channel.offer(2));
+    assertFalse(channel.offer(3));
+    channel.receive(4);
+
+    gate.countDown();
+    assertEquals(Arrays.<Object>asList(0, 1, 2), drain(3));
+  }
+
+  @Test
+  public final void dropOldestMakesRoomForNewMessages() throws Exception {
+    Channel channel = channel(2, Channel.Overflow.DROP_OLDEST);
+    assertTrue(channel.offer(1));
+    assertTrue(channel.offer(2));
+    assertTrue(channel.offer(3));
+
+    gate.countDown();
+    assertEquals(Arrays.<Object>asList(0, 2, 3), drain(3));
+  }
+
+  @Test
+  public final void failRaisesErrorToSender() throws Exception {
+    Channel channel = channel(1, Channel.Overflow.FAIL);
+    channel.receive(1);
+    assertFalse(channel.offer(2));
+    try {
+      channel.receive(3);
+      fail();
+    } catch (RuntimeException e) {
+      assertEquals("Mailbox of channel gated is full", e.getMessage());
+    }
+
+    gate.countDown();
+    assertEquals(Arrays.<Object>asList(0, 1), drain(2));
+  }
+
+  @Test
+  public final void blockHoldsSenderUntilThereIsRoom() throws Exception {
+    final Channel channel = channel(1, Channel.Overflow.BLOCK);
+    channel.receive(1);
+
+    Thread sender = new Thread() {
+      @Override public void run() {
+        channel.receive(2);
+      }
+    };
+    sender.start();
+    sender.join(100);
+    assertTrue(sender.isAlive());
+
+    gate.countDown();
+    sender.join(5000);
+    assertFalse(sender.isAlive());
+    assertEquals(Arrays.<Object>asList(0, 1, 2), drain(3));
+  }
+
+  @Test
+  public final void serializedChannelsLoseNoMessagesUnderContention() throws Exception {
+    sendFromManyThreads(false);
+  }
+
+  @Test
+  public final void concurrentChannelsLoseNoMessagesUnderContention() throws Exception {
+    sendFromManyThreads(true);
+  }
+
+  private static void sendFromManyThreads(boolean parallel) throws Exception {
+    final Channel channel = new Channel("counted",
+        new Closure(ChannelTest.class.getName(), "count"), parallel, 2);
+    Thread[] senders = new Thread[4];
+    for (int i = 0; i < senders.length; i++) {
+      senders[i] = new Thread() {
+        @Override public void run() {
+          for (int message = 0; message < 10000; message++) {
+            channel.receive(message);
+          }
+        }
+      };
+      senders[i].start();
+    }
+    for (Thread sender : senders) {
+      sender.join();
+    }
+
+    long deadline = System.currentTimeMillis() + 5000;
+    while (counted.get() < 40000 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(1);
+    }
+    assertEquals(40000, counted.get());
+    channel.shutdown();
+  }
+
+  @Test
+  public final void batchesDeliverQueuedMessagesTogether() throws Exception {
+    Channel channel = new Channel("batched",
+        new Closure(ChannelTest.class.getName(), "gatedBatches"), false, 0, false, 0, null, 3, 0);
+    channel.receive(0);
+    assertTrue(started.await(5, TimeUnit.SECONDS));
+    for (int i = 1; i <= 7; i++) {
+      channel.receive(i);
+    }
+
+    gate.countDown();
+    assertEquals(Arrays.<Object>asList(Arrays.asList(0), Arrays.asList(1, 2, 3),
+        Arrays.asList(4, 5, 6), Arrays.asList(7)), drain(4));
+  }
+}
@@ -0,0 +1,53 @@
+package loop.runtime;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class IntRangeTest {
+
+  @Test
+  public final void ascendingAndDescending() {
+    assertEquals(Arrays.asList(3, 4, 5), new IntRange(3, 5));
+    assertEquals(Arrays.asList(5, 4, 3), new IntRange(5, 3));
+    assertEquals(Arrays.asList(7), new IntRange(7, 7));
+  }
+
+  @Test
+  public final void steps() {
+    assertEquals(Arrays.asList(1, 4, 7, 10), new IntRange(1, 11, 3));
+    assertEquals(Arrays.asList(10, 8, 6), new IntRange(10, 5, -2));
+    assertEquals(Collections.<Integer>emptyList(), new IntRange(1, 5, -1));
+  }
+
+  @Test
+  public final void longRangesAreNotMaterialized() {
+    IntRange range = new IntRange(Integer.MIN_VALUE + 1, Integer.MAX_VALUE - 1, 2);
+
+    assertEquals(Integer.MAX_VALUE, range.size());
+    assertEquals(Integer.MAX_VALUE - 2, (int) range.get(range.size() - 1));
+    assertEquals(Integer.MAX_VALUE - 1, range.indexOf(Integer.MAX_VALUE - 2));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public final void tooLongRange() {
+    new IntRange(Integer.MIN_VALUE, Integer.MAX_VALUE);
+  }
+
+  @Test
+  public final void lookups() {
+    IntRange range = new IntRange(10, 0, -5);
+
+    assertTrue(range.contains(5));
+    assertFalse(range.contains(4));
+    assertFalse(range.contains(5L));
+    assertEquals(2, range.indexOf(0));
+    assertEquals(new ArrayList<Integer>(range), range);
+  }
+}
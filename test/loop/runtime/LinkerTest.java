@@ -0,0 +1,37 @@
+package loop.runtime;
+
+import org.junit.Test;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+
+public class LinkerTest {
+  public static Object pair(Object first, Object second) {
+    return Arrays.asList(first, second);
+  }
+
+  public static Object concat(String first, String second) {
+    return first + second;
+  }
+
+  @Test
+  public final void linksStraightToFunctions() throws Throwable {
+    CallSite site = Linker.bootstrap(MethodHandles.lookup(), "pair",
+        MethodType.genericMethodType(2), LinkerTest.class.getName(), 2);
+
+    assertEquals(Arrays.asList(1, "b"), site.dynamicInvoker().invoke((Object) 1, (Object) "b"));
+  }
+
+  @Test
+  public final void fallsBackToReflectiveCalls() throws Throwable {
+    // Not a Loop function signature, so the arguments are packed up and resolved by type.
+    CallSite site = Linker.bootstrap(MethodHandles.lookup(), "concat",
+        MethodType.genericMethodType(2), LinkerTest.class.getName(), 2);
+
+    assertEquals("ab", site.dynamicInvoker().invoke((Object) "a", (Object) "b"));
+  }
+}
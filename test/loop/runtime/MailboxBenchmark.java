@@ -0,0 +1,125 @@
+package loop.runtime;
+
+import org.junit.Test;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedTransferQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Pushes messages through mailboxes from 1, 4 and 16 sending threads, against the
+ * ConcurrentLinkedQueue that channels used to use: with one thread taking them out, as
+ * for serialized channels, and with two, as for concurrent ones.
+ */
+public class MailboxBenchmark {
+  // Messages per run, should be > 1000000 for anything useful.
+//  private static final int RUNS = 10000000;
+  private static final int RUNS = 1;
+  private static final int ROUNDS = RUNS > 100 ? 5 : 1;
+  private static final int[] SENDERS = { 1, 4, 16 };
+
+  private interface Factory {
+    Mailbox create();
+  }
+
+  private static final Factory LINKED = new Factory() {
+    @Override public Mailbox create() {
+      return new Mailbox.Shared();
+    }
+  };
+
+  private static final Factory MPSC = new Factory() {
+    @Override public Mailbox create() {
+      return new MpscMailbox();
+    }
+  };
+
+  private static final Factory TRANSFER = new Factory() {
+    @Override public Mailbox create() {
+      return new TransferMailbox();
+    }
+  };
+
+  private static class TransferMailbox extends LinkedTransferQueue<Object> implements Mailbox {
+  }
+
+  @Test
+  public final void oneReader() throws Exception {
+    for (int round = 0; round < ROUNDS; round++) {
+      for (int senders : SENDERS) {
+        long linked = time(LINKED, senders, 1);
+        long mpsc = time(MPSC, senders, 1);
+        System.out.println(senders + " senders, 1 reader. ConcurrentLinkedQueue: "
+            + linked / 1000000 + "ms, MpscMailbox: " + mpsc / 1000000 + "ms");
+      }
+    }
+  }
+
+  @Test
+  public final void twoReaders() throws Exception {
+    for (int round = 0; round < ROUNDS; round++) {
+      for (int senders : SENDERS) {
+        long linked = time(LINKED, senders, 2);
+        long transfer = time(TRANSFER, senders, 2);
+        System.out.println(senders + " senders, 2 readers. ConcurrentLinkedQueue: "
+            + linked / 1000000 + "ms, LinkedTransferQueue: " + transfer / 1000000 + "ms");
+      }
+    }
+  }
+
+  private static long time(Factory factory, int senders, int readers) throws Exception {
+    final Mailbox mailbox = factory.create();
+    final int perSender = Math.max(1, RUNS / senders);
+    final AtomicInteger remaining = new AtomicInteger(perSender * senders);
+    final CountDownLatch start = new CountDownLatch(1);
+    final Integer message = 1;
+
+    Thread[] threads = new Thread[senders + readers];
+    for (int i = 0; i < senders; i++) {
+      threads[i] = new Thread() {
+        @Override public void run() {
+          await(start);
+          for (int sent = 0; sent < perSender; sent++) {
+            mailbox.offer(message);
+          }
+        }
+      };
+    }
+    for (int i = senders; i < threads.length; i++) {
+      threads[i] = new Thread() {
+        @Override public void run() {
+          await(start);
+          while (remaining.get() > 0) {
+            if (mailbox.poll() != null)
+              remaining.decrementAndGet();
+          }
+        }
+      };
+    }
+
+    for (Thread thread : threads) {
+      thread.start();
+    }
+    long time = System.nanoTime();
+    start.countDown();
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    time = System.nanoTime() - time;
+
+    assertEquals(0, remaining.get());
+    return time;
+  }
+
+  private static void await(CountDownLatch latch) {
+    try {
+      latch.await();
+    } catch (InterruptedException e) {
+      throw new RuntimeException(e);
+    }
+  }
+}
@@ -0,0 +1,87 @@
+package loop.runtime;
+
+import org.junit.Test;
+
+import java.lang.ref.WeakReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class MpscMailboxTest {
+
+  @Test
+  public final void firstInFirstOutAcrossChunks() {
+    MpscMailbox mailbox = new MpscMailbox();
+    assertTrue(mailbox.isEmpty());
+    assertNull(mailbox.poll());
+
+    for (int round = 0; round < 3; round++) {
+      for (int i = 0; i < 1500; i++) {
+        mailbox.offer(i);
+      }
+      for (int i = 0; i < 1500; i++) {
+        assertFalse(mailbox.isEmpty());
+        assertEquals(i, mailbox.poll());
+      }
+      assertTrue(mailbox.isEmpty());
+      assertNull(mailbox.poll());
+    }
+  }
+
+  @Test
+  public final void keepsTheOrderOfEachSender() throws InterruptedException {
+    final MpscMailbox mailbox = new MpscMailbox();
+    final int senders = 4, messages = 50000;
+
+    Thread[] threads = new Thread[senders];
+    for (int i = 0; i < senders; i++) {
+      final int sender = i;
+      threads[i] = new Thread() {
+        @Override public void run() {
+          for (int message = 0; message < messages; message++) {
+            mailbox.offer(new int[]{sender, message});
+          }
+        }
+      };
+      threads[i].start();
+    }
+
+    int[] next = new int[senders];
+    for (int received = 0; received < senders * messages; ) {
+      int[] message = (int[]) mailbox.poll();
+      if (message == null)
+        continue;
+
+      assertEquals(next[message[0]]++, message[1]);
+      received++;
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertTrue(mailbox.isEmpty());
+  }
+
+  @Test
+  public final void letsGoOfDeliveredMessages() throws InterruptedException {
+    MpscMailbox mailbox = new MpscMailbox();
+    WeakReference<Object> delivered = new WeakReference<Object>(offerNew(mailbox));
+    mailbox.offer("waiting");
+    assertNotNull(mailbox.poll());
+
+    for (int i = 0; i < 50 && delivered.get() != null; i++) {
+      System.gc();
+      Thread.sleep(10);
+    }
+    assertNull(delivered.get());
+    assertEquals("waiting", mailbox.poll());
+  }
+
+  private static Object offerNew(MpscMailbox mailbox) {
+    Object message = new Object();
+    mailbox.offer(message);
+    return message;
+  }
+}
@@ -0,0 +1,92 @@
+package loop.runtime;
+
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class OperationsTest {
+
+  @Test
+  public final void mixedTypesArePromoted() {
+    assertEquals(3L, Operations.plus(1, 2L));
+    assertEquals(3L, Operations.plus(2L, 1));
+    assertEquals(1.5, Operations.plus(1, 0.5));
+    assertEquals(3.0f, Operations.multiply(2L, 1.5f));
+    assertEquals(BigInteger.valueOf(5), Operations.plus(2, BigInteger.valueOf(3)));
+    assertEquals(new BigDecimal("2.5"), Operations.plus(1L, new BigDecimal("1.5")));
+    assertEquals(new BigDecimal("3.0"), Operations.multiply(BigInteger.valueOf(2), 1.5));
+    assertEquals(1L, Operations.remainder(7, 2L));
+    assertEquals(2, Operations.divide(10, 4));
+  }
+
+  @Test
+  public final void numbersOfDifferentTypesEqualByValue() {
+    assertTrue(Operations.isEqual(20L, 20));
+    assertTrue(Operations.isEqual(20, 20L));
+    assertTrue(Operations.isEqual(2, 2.0));
+    assertTrue(Operations.isEqual(BigInteger.TEN, 10));
+    assertTrue(Operations.isEqual(new BigDecimal("1.50"), 1.5));
+    assertFalse(Operations.isEqual(20L, 21));
+    assertFalse(Operations.isEqual(new BigDecimal("1"), Double.NaN));
+    assertFalse(Operations.isEqual(1, "1"));
+    assertFalse(Operations.isEqual(1, null));
+    assertTrue(Operations.isNotEqual(3L, 4));
+  }
+
+  @Test
+  public final void intOverflowPromotesToLong() {
+    assertEquals(2147483648L, Operations.plus(Integer.MAX_VALUE, 1));
+    assertEquals(-2147483649L, Operations.minus(Integer.MIN_VALUE, 1));
+    assertEquals(4611686014132420609L, Operations.multiply(Integer.MAX_VALUE, Integer.MAX_VALUE));
+    assertEquals(2147483648L, Operations.divide(Integer.MIN_VALUE, -1));
+    assertEquals(Integer.MAX_VALUE, Operations.plus(Integer.MAX_VALUE - 1, 1));
+  }
+
+  @Test
+  public final void longOverflowPromotesToBigInteger() {
+    BigInteger max = BigInteger.valueOf(Long.MAX_VALUE);
+
+    assertEquals(max.add(BigInteger.ONE), Operations.plus(Long.MAX_VALUE, 1));
+    assertEquals(BigInteger.valueOf(Long.MIN_VALUE).subtract(BigInteger.ONE),
+        Operations.minus(Long.MIN_VALUE, 1L));
+    assertEquals(max.multiply(max), Operations.multiply(Long.MAX_VALUE, Long.MAX_VALUE));
+    assertEquals(max.add(BigInteger.ONE), Operations.divide(Long.MIN_VALUE, -1L));
+    assertEquals(Long.MIN_VALUE, Operations.multiply(Long.MIN_VALUE, 1));
+  }
+
+  @Test
+  public final void mixedComparisons() {
+    assertTrue((Boolean) Operations.lesserThan(1, 2L));
+    assertTrue((Boolean) Operations.greaterThan(2.5, 2));
+    assertTrue((Boolean) Operations.lesserThanOrEqual(2L, 2.0));
+    assertTrue((Boolean) Operations.greaterThanOrEqual(BigInteger.TEN, 10));
+    assertFalse((Boolean) Operations.lesserThan(new BigDecimal("1.5"), 1));
+  }
+
+  @Test
+  public final void comparisonsWithNaNAreFalse() {
+    assertFalse((Boolean) Operations.lesserThan(Double.NaN, 1));
+    assertFalse((Boolean) Operations.greaterThan(Double.NaN, 1));
+    assertFalse((Boolean) Operations.lesserThanOrEqual(1L, Double.NaN));
+    assertFalse((Boolean) Operations.greaterThanOrEqual(1L, Double.NaN));
+  }
+
+  @Test
+  public final void nonNumericOperandsAreUnchanged() {
+    assertEquals("ab", Operations.plus("a", "b"));
+    assertEquals("a1", Operations.plus("a", 1));
+    assertEquals(Arrays.asList(1, 2), Operations.plus(Arrays.asList(1), Arrays.asList(2)));
+    assertEquals(Arrays.asList(1), Operations.minus(Arrays.asList(1, 2), Arrays.asList(2)));
+  }
+
+  @Test(expected = Numbers.Overflow.class)
+  public final void exactIntArithmeticThrows() {
+    Numbers.addExact(Integer.MAX_VALUE, 1);
+  }
+}
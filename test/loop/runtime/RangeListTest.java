@@ -0,0 +1,43 @@
+package loop.runtime;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RangeListTest {
+
+  @Test
+  public final void readsFromTheRange() {
+    RangeList range = new RangeList(new IntRange(1, 10000000));
+    assertEquals(10000000, range.size());
+    assertEquals(500, range.get(499));
+    assertTrue(range.contains(10000000));
+  }
+
+  @Test
+  public final void copiesOnFirstChange() {
+    IntRange source = new IntRange(1, 3);
+    List<Object> range = new RangeList(source);
+    range.add("x");
+    range.set(0, 10);
+    range.remove(1);
+    assertEquals(Arrays.<Object>asList(10, 3, "x"), range);
+    assertEquals(Arrays.asList(1, 2, 3), source);
+  }
+
+  @Test
+  public final void removesThroughIteratorsAndViews() {
+    List<Object> range = new RangeList(new IntRange(1, 6));
+    for (Iterator<Object> iterator = range.iterator(); iterator.hasNext(); ) {
+      if ((Integer) iterator.next() % 2 == 0)
+        iterator.remove();
+    }
+    range.subList(0, 1).clear();
+    assertEquals(Arrays.<Object>asList(3, 5), range);
+  }
+}
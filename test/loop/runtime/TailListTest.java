@@ -0,0 +1,39 @@
+package loop.runtime;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TailListTest {
+
+  @Test
+  public final void tailsOfTails() {
+    List<Integer> list = Arrays.asList(1, 2, 3, 4);
+    List<?> tail = TailList.of(list, 1);
+
+    assertEquals(Arrays.asList(2, 3, 4), tail);
+    assertEquals(Arrays.asList(4), TailList.of(TailList.of(tail, 1), 1));
+    assertEquals(Collections.emptyList(), TailList.of(TailList.of(list, 3), 1));
+    assertTrue(TailList.of(tail, 2) instanceof TailList);
+  }
+
+  @Test
+  public final void sequentialListsAreSliced() {
+    List<Integer> list = new LinkedList<Integer>(Arrays.asList(1, 2, 3));
+
+    assertEquals(Arrays.asList(2, 3), TailList.of(list, 1));
+    assertFalse(TailList.of(list, 1) instanceof TailList);
+  }
+
+  @Test(expected = IndexOutOfBoundsException.class)
+  public final void indexPastTheEnd() {
+    TailList.of(Arrays.asList(1, 2, 3), 1).get(2);
+  }
+}
@@ -2,7 +2,12 @@ package loop.runtime.regex;
 
 import org.junit.Test;
 
+import java.util.Arrays;
+import java.util.Collections;
+
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 /**
@@ -23,4 +28,42 @@ public class NamedMatcherTest {
     assertTrue(matcher.matches());
     assertEquals("hello", matcher.group("one"));
   }
+
+  @Test
+  public final void reusableMatchersAreResetPerThread() {
+    NamedPattern pattern = NamedPattern.compile("(?<key>\\w+)=(?<value>\\w+)");
+    NamedMatcher matcher = pattern.reusableMatcher("a=1");
+    assertTrue(matcher.matches());
+    assertEquals("1", matcher.group("value"));
+
+    assertSame(matcher, pattern.reusableMatcher("b=2"));
+    assertTrue(matcher.matches());
+    assertEquals("b", matcher.group("key"));
+    assertFalse(pattern.reusableMatcher("c").matches());
+  }
+
+  @Test
+  public final void namedGroupsCountUnnamedOnes() {
+    NamedPattern pattern = NamedPattern.compile("(a|b)\\((?<=b\\()(?:x)[(?<no>]*(?<name>\\w+)\\)");
+    assertEquals(Arrays.asList("name"), pattern.groupNames());
+    assertEquals(2, pattern.groupIndex("name"));
+    assertEquals(-1, pattern.groupIndex("no"));
+
+    NamedMatcher matcher = pattern.matcher("b(xDhanji)");
+    assertTrue(matcher.matches());
+    assertEquals("Dhanji", matcher.group("name"));
+    assertEquals(Collections.singletonMap("name", "Dhanji"), matcher.namedGroups());
+  }
+
+  @Test
+  public final void matchResultsOutliveTheMatcher() {
+    NamedMatcher matcher = NamedPattern.compile("(?<word>\\w+)").matcher("hello there");
+    assertTrue(matcher.find());
+    NamedMatchResult first = matcher.toMatchResult();
+    assertTrue(matcher.find());
+
+    assertEquals("hello", first.group("word"));
+    assertEquals(5, first.end("word"));
+    assertEquals("there", matcher.group("word"));
+  }
 }